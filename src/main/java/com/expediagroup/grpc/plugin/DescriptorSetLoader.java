@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.DescriptorProtos;
+import com.google.protobuf.compiler.PluginProtos;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reads many descriptor sets at once and merges their protocol files.
+ *
+ * Files are memory-mapped and parsed in parallel. Each one can either be a descriptor_dump (a serialized
+ * CodeGeneratorRequest) or the output of 'protoc --descriptor_set_out'. Protocol files shared between the
+ * sets, typically common imports, are only kept once: they are identified by file name and content hash.
+ */
+public class DescriptorSetLoader {
+
+    private final static Logger LOGGER = LogManager.getLogger(DescriptorSetLoader.class);
+
+    public static final String DESCRIPTOR_SETS = "descriptor_sets";
+    public static final String OUTPUT_DIR = "output_dir";
+
+    private final int parallelism;
+
+    /**
+     * @param parallelism - Number of descriptor sets parsed concurrently
+     */
+    public DescriptorSetLoader(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Load and merge the descriptor sets
+     * @param paths - Descriptor set files, or directories walked for them
+     * @return De-duplicated protocol files, in the order they were first seen
+     * @throws IOException
+     */
+    public List<DescriptorProtos.FileDescriptorProto> load(List<Path> paths) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        final List<List<DescriptorProtos.FileDescriptorProto>> parsed = parseAll(files);
+
+        final Map<String, DescriptorProtos.FileDescriptorProto> merged = new LinkedHashMap<>();
+        final Map<String, HashCode> hashByName = new HashMap<>();
+        int total = 0;
+        for (List<DescriptorProtos.FileDescriptorProto> protoFiles : parsed) {
+            for (DescriptorProtos.FileDescriptorProto protoFile : protoFiles) {
+                total++;
+                final HashCode hash = Hashing.murmur3_128().hashBytes(protoFile.toByteArray());
+                final HashCode previous = hashByName.putIfAbsent(protoFile.getName(), hash);
+                if (previous != null && !previous.equals(hash)) {
+                    LOGGER.warn("Protocol file {} differs between descriptor sets, keeping every version.", protoFile.getName());
+                }
+                merged.putIfAbsent(protoFile.getName() + "@" + hash, protoFile);
+            }
+        }
+        LOGGER.info("Loaded {} descriptor sets: {} protocol files, {} after de-duplication.", files.size(), total, merged.size());
+        return new ArrayList<>(merged.values());
+    }
+
+    private List<List<DescriptorProtos.FileDescriptorProto>> parseAll(List<Path> files) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .map( file -> {
+                        try {
+                            return read(file);
+                        } catch(IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    })
+                    .collect(Collectors.toList())).get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch(ExecutionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Read the protocol files of a single descriptor set
+     * @param file - descriptor_dump or FileDescriptorSet
+     * @return
+     * @throws IOException
+     */
+    public static List<DescriptorProtos.FileDescriptorProto> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Both messages parse leniently, a descriptor set read as a request simply has no protocol files
+            final PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.parseFrom(buffer.duplicate());
+            if (request.getProtoFileCount() > 0) {
+                return request.getProtoFileList();
+            }
+            return DescriptorProtos.FileDescriptorSet.parseFrom(buffer.duplicate()).getFileList();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Tuning options for the exporters.
+ *
+ * Options are 'key=value' pairs, either separated by commas in the protoc plugin parameter
+ * (ex. 'batch_size=500,gzip=true') or passed as separate arguments when the plugin is run manually.
+ * The 'config' option points to a properties file holding the same keys, values given next to it win.
+ */
+public class ExporterConfig {
+
+    public static final String CONFIG_FILE = "config";
+    public static final String POOL_SIZE = "pool_size";
+    public static final String POOL_SIZE_PER_ROUTE = "pool_size_per_route";
+    public static final String CONNECT_TIMEOUT_MS = "connect_timeout_ms";
+    public static final String READ_TIMEOUT_MS = "read_timeout_ms";
+    public static final String GZIP = "gzip";
+    public static final String BATCH_SIZE = "batch_size";
+    public static final String PARALLELISM = "parallelism";
+
+    private static final ExporterConfig EMPTY = new ExporterConfig(Collections.emptyMap());
+
+    private final Map<String, String> options;
+
+    private ExporterConfig(Map<String, String> options) {
+        this.options = Collections.unmodifiableMap(options);
+    }
+
+    public static ExporterConfig empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Parse a protoc plugin parameter
+     * @param parameter - Comma separated 'key=value' pairs, may be empty
+     * @return
+     */
+    public static ExporterConfig parse(String parameter) {
+        if (StringUtils.isBlank(parameter)) {
+            return EMPTY;
+        }
+        return of(parameter.split(","));
+    }
+
+    /**
+     * Build the configuration out of 'key=value' pairs, loading the 'config' file first if there is one
+     * @param pairs
+     * @return
+     */
+    public static ExporterConfig of(String... pairs) {
+        final Map<String, String> given = new HashMap<>();
+        for (String pair : pairs) {
+            if (StringUtils.isBlank(pair)) {
+                continue;
+            }
+            final int separator = pair.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Option is not a key=value pair: '" + pair + "'");
+            }
+            given.put(pair.substring(0, separator).trim(), pair.substring(separator + 1).trim());
+        }
+
+        final Map<String, String> options = new HashMap<>();
+        if (given.containsKey(CONFIG_FILE)) {
+            options.putAll(load(given.get(CONFIG_FILE)));
+        }
+        options.putAll(given);
+        return new ExporterConfig(options);
+    }
+
+    private static Map<String, String> load(String file) {
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(Paths.get(file))) {
+            properties.load(in);
+        } catch(IOException ex) {
+            throw new IllegalArgumentException("Unable to read the config file '" + file + "'", ex);
+        }
+        final Map<String, String> options = new HashMap<>();
+        properties.stringPropertyNames().forEach( key -> options.put(key, properties.getProperty(key).trim()) );
+        return options;
+    }
+
+    /**
+     * @param overrides
+     * @return a new configuration where the options of 'overrides' replace the ones of this configuration
+     */
+    public ExporterConfig merge(ExporterConfig overrides) {
+        if (overrides.options.isEmpty()) {
+            return this;
+        }
+        final Map<String, String> merged = new HashMap<>(options);
+        merged.putAll(overrides.options);
+        return new ExporterConfig(merged);
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public String getString(String key, String defaultValue) {
+        final String value = options.get(key);
+        return StringUtils.isNotBlank(value) ? value : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        final String value = options.get(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Option '" + key + "' is not a number: '" + value + "'", ex);
+        }
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        final String value = options.get(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch(NumberFormatException ex) {
+            throw new IllegalArgumentException("Option '" + key + "' is not a number: '" + value + "'", ex);
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        final String value = options.get(key);
+        return StringUtils.isBlank(value) ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * @return maximum number of pooled connections, defaults to 10
+     */
+    public int getPoolSize() {
+        return getInt(POOL_SIZE, 10);
+    }
+
+    /**
+     * @return maximum number of pooled connections per route, defaults to the pool size
+     */
+    public int getPoolSizePerRoute() {
+        return getInt(POOL_SIZE_PER_ROUTE, getPoolSize());
+    }
+
+    /**
+     * @return connect timeout in milliseconds, 0 (the default) waits forever
+     */
+    public int getConnectTimeoutMs() {
+        return getInt(CONNECT_TIMEOUT_MS, 0);
+    }
+
+    /**
+     * @return read timeout in milliseconds, 0 (the default) waits forever
+     */
+    public int getReadTimeoutMs() {
+        return getInt(READ_TIMEOUT_MS, 0);
+    }
+
+    /**
+     * @return true to gzip the request bodies
+     */
+    public boolean isGzip() {
+        return getBoolean(GZIP, false);
+    }
+
+    /**
+     * @return number of entities or relationships written per request, defaults to 1
+     */
+    public int getBatchSize() {
+        return Math.max(1, getInt(BATCH_SIZE, 1));
+    }
+
+    /**
+     * @return number of concurrent writers, defaults to the number of available processors
+     */
+    public int getParallelism() {
+        return Math.max(1, getInt(PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+}
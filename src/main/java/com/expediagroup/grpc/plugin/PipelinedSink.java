@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Hands the events over to another sink through a bounded queue consumed by its own thread.
+ *
+ * The traversal only waits when the queue is full, i.e. when the exporter falls behind, so traversal
+ * and export overlap.
+ */
+public class PipelinedSink implements ProtoSchemaSink {
+
+    public static final String QUEUE_SIZE = "queue_size";
+
+    private static final Object COMPLETE = new Object();
+
+    private final ProtoSchemaSink delegate;
+    private final BlockingQueue<Object> queue;
+    private final Thread consumer;
+    private volatile Throwable failure;
+    private volatile boolean aborted;
+
+    /**
+     * @param delegate - Sink consuming the events on the pipeline thread
+     * @param capacity - Number of events buffered before the producer blocks
+     */
+    public PipelinedSink(ProtoSchemaSink delegate, int capacity) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.consumer = new Thread(this::consume, "proto-schema-pipeline");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    @Override
+    public void onEntity(ProtoSchema.Entity entity) {
+        put(entity);
+    }
+
+    @Override
+    public void onRelationship(ProtoSchema.RelationShip relationShip) {
+        put(relationShip);
+    }
+
+    /**
+     * Wait for the pipeline thread to drain the queue and complete the delegate
+     */
+    @Override
+    public void onComplete() {
+        put(COMPLETE);
+        try {
+            consumer.join();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        rethrowFailure();
+    }
+
+    /**
+     * Drop the queued events, stop the pipeline thread and abort the delegate
+     */
+    @Override
+    public void abort() {
+        aborted = true;
+        queue.clear();
+        consumer.interrupt();
+        delegate.abort();
+    }
+
+    private void put(Object event) {
+        rethrowFailure();
+        try {
+            queue.put(event);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void rethrowFailure() {
+        if (failure != null) {
+            throw failure instanceof RuntimeException ? (RuntimeException) failure : new RuntimeException(failure);
+        }
+    }
+
+    private void consume() {
+        Object event;
+        do {
+            try {
+                event = queue.take();
+            } catch(InterruptedException ex) {
+                failure = ex;
+                return;
+            }
+            if (aborted) {
+                return;
+            }
+            // After a failure keep draining so the producer never blocks, it fails on its next event
+            if (failure != null) {
+                continue;
+            }
+            try {
+                if (event instanceof ProtoSchema.Entity) {
+                    delegate.onEntity((ProtoSchema.Entity) event);
+                } else if (event instanceof ProtoSchema.RelationShip) {
+                    delegate.onRelationship((ProtoSchema.RelationShip) event);
+                } else {
+                    delegate.onComplete();
+                }
+            } catch(Throwable ex) {
+                failure = ex;
+            }
+        } while (event != COMPLETE);
+    }
+}
@@ -17,10 +17,17 @@ package com.expediagroup.grpc.plugin;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -32,8 +39,24 @@ public class ProtoSchema {
 
     private final static Logger LOGGER = LogManager.getLogger(ProtoSchema.class);
 
+    /**
+     * Field labels besides the protocol buffer ones ('LABEL_OPTIONAL', 'LABEL_REQUIRED', 'LABEL_REPEATED')
+     */
+    public static final String MAP_LABEL = "MAP";
+    public static final String ONEOF_LABEL = "ONEOF";
+
     private Map<String, Entity> entities = new ConcurrentHashMap<>();
     private Set<RelationShip> relationships = new HashSet<>();
+    private Set<String> completedEntities = new HashSet<>();
+    private ProtoSchemaSink sink;
+
+    /**
+     * Stream the schema to a sink while it is being built
+     * @param sink
+     */
+    public void setSink(ProtoSchemaSink sink) {
+        this.sink = sink;
+    }
 
     public void registerEntity(String entityName, String descriptorPackage) {
         if (!entities.containsKey(entityName)) {
@@ -54,12 +77,88 @@ public class ProtoSchema {
         }
     }
 
+    /**
+     * Register the cardinality of a field, either an attribute or the field of a relationship
+     * @param entityName
+     * @param fieldName
+     * @param label - Protocol buffer label, MAP_LABEL or ONEOF_LABEL
+     */
+    public void registerFieldLabel(String entityName, String fieldName, String label) {
+        if (entities.containsKey(entityName)) {
+            entities.get(entityName).fieldLabels.put(fieldName, label);
+        }
+    }
+
+    /**
+     * Register a value of an enum entity
+     * @param entityName
+     * @param valueName
+     */
+    public void registerEnumValue(String entityName, String valueName) {
+        if (entities.containsKey(entityName)) {
+            entities.get(entityName).enumValues.add(valueName);
+        }
+    }
+
+    /**
+     * Mark an entity as fully registered, sending it to the sink the first time
+     * @param entityName
+     */
+    public void completeEntity(String entityName) {
+        if (sink != null && entities.containsKey(entityName) && completedEntities.add(entityName)) {
+            sink.onEntity(entities.get(entityName));
+        }
+    }
+
+    /**
+     * Register a derived property (for example the output of an analysis pass) on an entity.
+     * Unlike attributes, properties do not describe a field of the protocol buffer.
+     * @param entityName
+     * @param propertyName
+     * @param propertyValue
+     */
+    public void registerEntityProperty(String entityName, String propertyName, String propertyValue) {
+        if (entities.containsKey(entityName)) {
+            final Entity entity = entities.get(entityName);
+            entity.properties.put(propertyName, propertyValue);
+        }
+    }
+
     public void registerRelationship(String type, String fieldName, String typeUsed) {
         final RelationShip rel = new RelationShip();
         rel.type = type;
         rel.fieldName = fieldName;
+        rel.fieldNames = Collections.singletonList(fieldName);
         rel.typeUsed = typeUsed;
-        relationships.add(rel);
+        if (relationships.add(rel) && sink != null) {
+            sink.onRelationship(rel);
+        }
+    }
+
+    /**
+     * Collapse the relationships between the same two types into one, in a single pass. The remaining relationship
+     * holds the sorted list of the field names, its field name joins them with RelationShip.FIELD_SEPARATOR and its
+     * multiplicity is the number of fields.
+     */
+    public void aggregateRelationships() {
+        final Map<String, RelationShip> aggregated = new LinkedHashMap<>();
+        final Map<String, SortedSet<String>> fieldNames = new HashMap<>();
+        for (RelationShip rel : relationships) {
+            final String key = rel.type + "\n" + rel.typeUsed;
+            aggregated.putIfAbsent(key, rel);
+            fieldNames.computeIfAbsent(key, k -> new TreeSet<>()).addAll(rel.getFieldNames());
+        }
+
+        final Set<RelationShip> collapsed = new HashSet<>();
+        aggregated.forEach( (key, first) -> {
+            final RelationShip rel = new RelationShip();
+            rel.type = first.type;
+            rel.typeUsed = first.typeUsed;
+            rel.fieldNames = Collections.unmodifiableList(new ArrayList<>(fieldNames.get(key)));
+            rel.fieldName = String.join(RelationShip.FIELD_SEPARATOR, rel.fieldNames);
+            collapsed.add(rel);
+        });
+        relationships = collapsed;
     }
 
     public Map<String, Entity> getEntities() {
@@ -89,6 +188,9 @@ public class ProtoSchema {
         private String name;
         private String domain;
         private Map<String, String> attributes = new ConcurrentHashMap<>();
+        private Map<String, String> properties = new ConcurrentHashMap<>();
+        private Set<String> enumValues = ConcurrentHashMap.newKeySet();
+        private Map<String, String> fieldLabels = new ConcurrentHashMap<>();
 
         public String getName() {
             return name;
@@ -102,11 +204,26 @@ public class ProtoSchema {
             return attributes;
         }
 
+        public Map<String, String> getProperties() {
+            return properties;
+        }
+
+        public Set<String> getEnumValues() {
+            return enumValues;
+        }
+
+        public Map<String, String> getFieldLabels() {
+            return fieldLabels;
+        }
+
     }
 
     public static class RelationShip {
+        public static final String FIELD_SEPARATOR = ",";
+
         private String type;
         private String fieldName;
+        private List<String> fieldNames;
         private String typeUsed;
 
         public String getType() {
@@ -121,6 +238,20 @@ public class ProtoSchema {
             return typeUsed;
         }
 
+        /**
+         * @return the names of the fields this relationship stands for, sorted once aggregated
+         */
+        public List<String> getFieldNames() {
+            return fieldNames;
+        }
+
+        /**
+         * @return the number of fields this relationship stands for, more than one once aggregated
+         */
+        public int getMultiplicity() {
+            return fieldNames.size();
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -128,12 +259,13 @@ public class ProtoSchema {
             RelationShip that = (RelationShip) o;
             return type.equals(that.type) &&
                     fieldName.equals(that.fieldName) &&
+                    fieldNames.equals(that.fieldNames) &&
                     typeUsed.equals(that.typeUsed);
         }
 
         @Override
         public int hashCode() {
-            return Objects.hash(type, fieldName, typeUsed);
+            return Objects.hash(type, fieldName, fieldNames, typeUsed);
         }
     }
 }
@@ -15,15 +15,33 @@
  */
 package com.expediagroup.grpc.plugin;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * Interface for any Visual implementation of converting from ProtoSchema
  */
 public interface ProtoSchemaExporter {
 
+    /**
+     * Apply the tuning options, called before export
+     * @param config
+     */
+    default void configure(ExporterConfig config) {
+    }
+
     void export(ProtoSchema schema);
 
     String getLog();
 
     String getLogName();
 
+    /**
+     * Files written by the plugin once the export is done, the log alone unless the exporter produces more
+     * @return file name -> content
+     */
+    default Map<String, String> getFiles() {
+        return Collections.singletonMap(getLogName(), getLog());
+    }
+
 }
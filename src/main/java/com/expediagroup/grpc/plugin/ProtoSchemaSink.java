@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+/**
+ * Receives the ProtoSchema as it is being built, so exporting can start while descriptors are still traversed.
+ */
+public interface ProtoSchemaSink {
+
+    /**
+     * An entity was fully registered, attributes included
+     * @param entity
+     */
+    void onEntity(ProtoSchema.Entity entity);
+
+    /**
+     * A relationship was registered, its entities may not have been sent yet
+     * @param relationShip
+     */
+    void onRelationship(ProtoSchema.RelationShip relationShip);
+
+    /**
+     * The traversal is done, returns once everything received is exported
+     */
+    void onComplete();
+
+    /**
+     * The traversal failed, stop exporting and release the resources without waiting for pending writes
+     */
+    default void abort() {
+    }
+
+}
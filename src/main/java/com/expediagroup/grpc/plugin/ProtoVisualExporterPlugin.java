@@ -15,14 +15,35 @@
  */
 package com.expediagroup.grpc.plugin;
 
+import com.expediagroup.grpc.plugin.analysis.CycleAnalyzer;
+import com.expediagroup.grpc.plugin.analysis.MessageProfileAnalyzer;
+import com.expediagroup.grpc.plugin.analysis.ReachabilityAnalyzer;
+import com.expediagroup.grpc.plugin.analysis.SchemaGraph;
+import com.expediagroup.grpc.plugin.analysis.SchemaGraphAnalyzer;
+import com.expediagroup.grpc.plugin.diff.SchemaDiff;
+import com.expediagroup.grpc.plugin.html.HtmlProtoSchemaExporter;
+import com.expediagroup.grpc.plugin.index.FieldIndexProtoSchemaExporter;
+import com.expediagroup.grpc.plugin.neo4j.ExportCheckpoint;
 import com.expediagroup.grpc.plugin.neo4j.Neo4JProtoSchemaExporter;
+import com.expediagroup.grpc.plugin.sqlite.SQLiteProtoSchemaExporter;
+import com.google.common.collect.ImmutableSet;
 import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.compiler.PluginProtos;
 import com.salesforce.jprotoc.GeneratorException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * Plugin for exporting protocol buffers to a visual representation
@@ -30,16 +51,57 @@ import java.util.List;
 public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator {
 
     private ProtoSchemaExporter exporter;
+    private List<ProtoSchemaAnalyzer> analyzers;
+    private ExporterConfig config;
 
     private final static Logger LOGGER = LogManager.getLogger(ProtoVisualExporterPlugin.class);
+    protected static final String DIFF_FILE_NAME = "schema-diff.json";
+    protected static final String SQLITE_FILE_NAME = "proto-schema.db";
+    public static final String STREAMING = "streaming";
+    public static final String AGGREGATE_EDGES = "aggregate_edges";
+    public static final String ANALYSIS = "analysis";
+
+    // Options accepted as 'key=value' arguments, any other argument is positional
+    private static final Set<String> OPTION_KEYS = ImmutableSet.of(
+            ExporterConfig.CONFIG_FILE, ExporterConfig.POOL_SIZE, ExporterConfig.POOL_SIZE_PER_ROUTE,
+            ExporterConfig.CONNECT_TIMEOUT_MS, ExporterConfig.READ_TIMEOUT_MS, ExporterConfig.GZIP,
+            ExporterConfig.BATCH_SIZE, ExporterConfig.PARALLELISM, STREAMING, AGGREGATE_EDGES, ANALYSIS,
+            PipelinedSink.QUEUE_SIZE, DescriptorSetLoader.DESCRIPTOR_SETS, DescriptorSetLoader.OUTPUT_DIR,
+            Neo4JProtoSchemaExporter.URL_OPTION, Neo4JProtoSchemaExporter.USERNAME_OPTION,
+            Neo4JProtoSchemaExporter.PASSWORD_OPTION, Neo4JProtoSchemaExporter.GENERATIONS_OPTION,
+            Neo4JProtoSchemaExporter.RECLAIM_BATCH_SIZE_OPTION, ExportCheckpoint.CHECKPOINT,
+            ExportCheckpoint.CHECKPOINT_DIR, HtmlProtoSchemaExporter.LAYOUT_ITERATIONS,
+            HtmlProtoSchemaExporter.LAYOUT_THETA, HtmlProtoSchemaExporter.TILE_CAPACITY);
 
     /**
      * Takes in the visual exporter
      * @param exporter
      */
     public ProtoVisualExporterPlugin(ProtoSchemaExporter exporter) {
+        this(exporter, Collections.emptyList());
+    }
+
+    /**
+     * Takes in the visual exporter and the analysis passes to run before exporting
+     * @param exporter
+     * @param analyzers
+     */
+    public ProtoVisualExporterPlugin(ProtoSchemaExporter exporter, List<ProtoSchemaAnalyzer> analyzers) {
+        this(exporter, analyzers, ExporterConfig.empty());
+    }
+
+    /**
+     * Takes in the visual exporter, the analysis passes and the exporter options. The options of the protoc
+     * plugin parameter override the ones given here.
+     * @param exporter
+     * @param analyzers
+     * @param config
+     */
+    public ProtoVisualExporterPlugin(ProtoSchemaExporter exporter, List<ProtoSchemaAnalyzer> analyzers, ExporterConfig config) {
         super();
         this.exporter = exporter;
+        this.analyzers = analyzers;
+        this.config = config;
     }
 
     /**
@@ -48,9 +110,12 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
      * @param descriptorPackage - Indicates the package the enum belongs to
      * @param schema - The View Model we are populating
      */
-    private void registerEnum(final DescriptorProtos.EnumDescriptorProto descriptor, final String descriptorPackage, ProtoSchema schema) {
+    private static void registerEnum(final DescriptorProtos.EnumDescriptorProto descriptor, final String descriptorPackage, ProtoSchema schema) {
         String messageFullName = descriptorPackage + "." + descriptor.getName();
         schema.registerEntity(messageFullName, descriptorPackage);
+        descriptor.getValueList()
+                .forEach( value -> schema.registerEnumValue(messageFullName, value.getName()) );
+        schema.completeEntity(messageFullName);
     }
 
     /**
@@ -59,7 +124,7 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
      * @param descriptorPackage - Indicates the package the message belongs to
      * @param schema - The View Model we are populating
      */
-    private void registerMessage(final DescriptorProtos.DescriptorProto descriptor, final String descriptorPackage, ProtoSchema schema) {
+    private static void registerMessage(final DescriptorProtos.DescriptorProto descriptor, final String descriptorPackage, ProtoSchema schema) {
         String messageFullName = descriptorPackage + "." + descriptor.getName();
         schema.registerEntity(messageFullName, descriptorPackage);
 
@@ -75,6 +140,11 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
         descriptor.getFieldList()
                 .stream()
                 .forEach( field -> registerField(descriptor, field, descriptorPackage, schema));
+
+        // All the fields are in, the message and its one of's can be streamed
+        schema.completeEntity(messageFullName);
+        descriptor.getOneofDeclList()
+                .forEach( oneOf -> schema.completeEntity(descriptorPackage + "." + oneOf.getName()) );
     }
 
     /**
@@ -90,7 +160,7 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
      * @param descriptorPackage - Indicates the package the message belongs to
      * @param schema - The View Model we are populating
      */
-    private void registerField(final DescriptorProtos.DescriptorProto message, DescriptorProtos.FieldDescriptorProto field, final String descriptorPackage, ProtoSchema schema) {
+    private static void registerField(final DescriptorProtos.DescriptorProto message, DescriptorProtos.FieldDescriptorProto field, final String descriptorPackage, ProtoSchema schema) {
 
         if (field.hasOneofIndex()) {
             // Handle this as a one of relationship
@@ -104,11 +174,28 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
             String oneofDescriptorFullName = descriptorPackage + "." + oneofDescriptorProto.getName();
             // Super hacky
             schema.registerRelationship(messageName, oneofDescriptorProto.getName(), oneofDescriptorFullName);
+            schema.registerFieldLabel(messageName, oneofDescriptorProto.getName(), ProtoSchema.ONEOF_LABEL);
 
-            registerField(oneofDescriptorProto.getName(), field.getName(), field.getType(), field.getTypeName(), descriptorPackage, schema);
+            registerField(oneofDescriptorProto.getName(), field.getName(), field.getType(), field.getTypeName(), label(message, field), descriptorPackage, schema);
         } else {
-            registerField(message.getName(), field.getName(), field.getType(), field.getTypeName(), descriptorPackage, schema);
+            registerField(message.getName(), field.getName(), field.getType(), field.getTypeName(), label(message, field), descriptorPackage, schema);
+        }
+    }
+
+    /**
+     * Maps are repeated fields of a nested 'map_entry' message, tell them apart from other repeated fields
+     * @param message - The Message descriptor that this field belongs to
+     * @param field - The Field descriptor itself
+     * @return the field's label or ProtoSchema.MAP_LABEL
+     */
+    private static String label(final DescriptorProtos.DescriptorProto message, DescriptorProtos.FieldDescriptorProto field) {
+        if (field.getLabel() == DescriptorProtos.FieldDescriptorProto.Label.LABEL_REPEATED
+                && field.getType() == DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE
+                && message.getNestedTypeList().stream().anyMatch( nested -> nested.getOptions().getMapEntry()
+                        && field.getTypeName().endsWith("." + message.getName() + "." + nested.getName()) )) {
+            return ProtoSchema.MAP_LABEL;
         }
+        return field.getLabel().name();
     }
 
     /**
@@ -121,10 +208,11 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
      * @param fieldName - What the field's name is
      * @param fieldType - What the field type is (used if it's basic primitive type like STRING)
      * @param fieldTypeName - What the field type name is (if it's a message for example)
+     * @param label - Cardinality of the field
      * @param descriptorPackage -
      * @param schema
      */
-    private void registerField(String messageName, String fieldName, DescriptorProtos.FieldDescriptorProto.Type fieldType, String fieldTypeName, final String descriptorPackage, ProtoSchema schema) {
+    private static void registerField(String messageName, String fieldName, DescriptorProtos.FieldDescriptorProto.Type fieldType, String fieldTypeName, String label, final String descriptorPackage, ProtoSchema schema) {
         if (fieldType == DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE ||
                 fieldType == DescriptorProtos.FieldDescriptorProto.Type.TYPE_ENUM) {
             String messageFullName = descriptorPackage + "." + messageName;
@@ -135,6 +223,7 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
             String messageFullName = descriptorPackage + "." + messageName;
             schema.registerEntityAttribute(messageFullName, fieldName, fieldType.name());
         }
+        schema.registerFieldLabel(descriptorPackage + "." + messageName, fieldName, label);
     }
 
     /**
@@ -143,7 +232,7 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
      * @param schema - View model we are populating
      * @return File representation of the view
      */
-    private void handleProtoFile(DescriptorProtos.FileDescriptorProto fileDesc, ProtoSchema schema) {
+    private static void handleProtoFile(DescriptorProtos.FileDescriptorProto fileDesc, ProtoSchema schema) {
 
         for (DescriptorProtos.EnumDescriptorProto enumDescriptorProto : fileDesc.getEnumTypeList()) {
             registerEnum(enumDescriptorProto, fileDesc.getPackage(), schema);
@@ -154,29 +243,184 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
         }
     }
 
+    /**
+     * Build the view model out of protocol files
+     * @param files - File descriptors, including the ones they import
+     * @return The populated view model
+     */
+    public static ProtoSchema buildSchema(List<DescriptorProtos.FileDescriptorProto> files) {
+        final ProtoSchema schema = new ProtoSchema();
+        files.forEach( file -> handleProtoFile(file, schema) );
+        return schema;
+    }
+
+    /**
+     * Build the view model while a streaming exporter consumes it on another thread
+     * @param files - File descriptors, including the ones they import
+     * @param exporter - Exporter receiving the schema as it is built
+     * @param queueSize - Number of events buffered before the traversal waits for the exporter
+     * @return The populated view model
+     */
+    private static ProtoSchema buildAndStreamSchema(List<DescriptorProtos.FileDescriptorProto> files,
+                                                    StreamingProtoSchemaExporter exporter, int queueSize) {
+        final ProtoSchema schema = new ProtoSchema();
+        final PipelinedSink sink = new PipelinedSink(exporter.openSink(), queueSize);
+        schema.setSink(sink);
+        boolean completed = false;
+        try {
+            files.forEach( file -> handleProtoFile(file, schema) );
+            sink.onComplete();
+            completed = true;
+        } finally {
+            if (!completed) {
+                // Do not leave the exporter's threads running after a failure
+                sink.abort();
+            }
+            schema.setSink(null);
+        }
+        return schema;
+    }
+
     @Override
     public List<PluginProtos.CodeGeneratorResponse.File> generateFiles(PluginProtos.CodeGeneratorRequest request) throws GeneratorException {
 
-        ProtoSchema schema = new ProtoSchema();
+        final ExporterConfig exporterConfig = config.merge(ExporterConfig.parse(request.getParameter()));
+        exporter.configure(exporterConfig);
 
-        // Build the view model
-         request.getProtoFileList().forEach(
-                 file -> this.handleProtoFile(file, schema)
-         );
+        final ProtoSchema schema;
+        final boolean aggregateEdges = exporterConfig.getBoolean(AGGREGATE_EDGES, false);
+        if (exporterConfig.getBoolean(STREAMING, false) && exporter instanceof StreamingProtoSchemaExporter) {
+            // Export while building the view model, analyzers only contribute their own files in that case
+            if (aggregateEdges) {
+                LOGGER.warn("Edges are exported as soon as they are found, they are not aggregated when streaming.");
+            }
+            schema = buildAndStreamSchema(request.getProtoFileList(), (StreamingProtoSchemaExporter) exporter,
+                    exporterConfig.getInt(PipelinedSink.QUEUE_SIZE, 10000));
+            analyze(schema);
+        } else {
+            // Build the view model
+            schema = buildSchema(request.getProtoFileList());
+            if (aggregateEdges) {
+                schema.aggregateRelationships();
+            }
+
+            // Analyzers run first so the properties they register get exported
+            analyze(schema);
+
+            exporter.export(schema);
+        }
 
-         exporter.export(schema);
-         return Collections.singletonList(PluginProtos.CodeGeneratorResponse.File
+         final List<PluginProtos.CodeGeneratorResponse.File> files = new ArrayList<>();
+         exporter.getFiles().forEach( (name, content) -> files.add(PluginProtos.CodeGeneratorResponse.File
                  .newBuilder()
-                .setName(exporter.getLogName())
-                .setContent(exporter.getLog())
-                .build());
+                 .setName(name)
+                 .setContent(content)
+                 .build()) );
+         analyzers.forEach( analyzer -> files.add(PluginProtos.CodeGeneratorResponse.File
+                 .newBuilder()
+                 .setName(analyzer.getLogName())
+                 .setContent(analyzer.getLog())
+                 .build()) );
+         return files;
+    }
+
+    /**
+     * Run the analyzers, the ones working on the SchemaGraph share a single graph
+     * @param schema
+     */
+    private void analyze(ProtoSchema schema) {
+        SchemaGraph graph = null;
+        for (ProtoSchemaAnalyzer analyzer : analyzers) {
+            if (analyzer instanceof SchemaGraphAnalyzer) {
+                if (graph == null) {
+                    graph = SchemaGraph.of(schema);
+                }
+                ((SchemaGraphAnalyzer) analyzer).analyze(schema, graph);
+            } else {
+                analyzer.analyze(schema);
+            }
+        }
+    }
+
+    /**
+     * Compare the schemas of two descriptor dumps and write the differences as JSON
+     * @param before - descriptor_dump of the baseline
+     * @param after - descriptor_dump of the change
+     * @param output - File the diff is written to
+     * @return The differences
+     * @throws IOException
+     */
+    public static SchemaDiff diff(Path before, Path after, Path output) throws IOException {
+        final SchemaDiff diff = SchemaDiff.compare(readSchema(before), readSchema(after));
+        Files.write(output, diff.toString().getBytes(StandardCharsets.UTF_8));
+        LOGGER.info("Schema diff written to {} [added={}, removed={}, changed={}, addedRelationships={}, removedRelationships={}]",
+                output, diff.getAddedEntities().size(), diff.getRemovedEntities().size(), diff.getChangedEntities().size(),
+                diff.getAddedRelationships().size(), diff.getRemovedRelationships().size());
+        return diff;
+    }
+
+    private static ProtoSchema readSchema(Path descriptorDump) throws IOException {
+        return buildSchema(DescriptorSetLoader.read(descriptorDump));
+    }
+
+    /**
+     * Merge many descriptor sets into a single schema, run a single export pass and write the generated files
+     * @param descriptorSets - Descriptor set files, or directories holding them
+     * @param outputDir - Directory the generated files are written to
+     * @throws IOException
+     * @throws GeneratorException
+     */
+    public void generateFiles(List<Path> descriptorSets, Path outputDir) throws IOException, GeneratorException {
+        final List<DescriptorProtos.FileDescriptorProto> protoFiles =
+                new DescriptorSetLoader(config.getParallelism()).load(descriptorSets);
+        final PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.newBuilder()
+                .addAllProtoFile(protoFiles)
+                .build();
+
+        Files.createDirectories(outputDir);
+        for (PluginProtos.CodeGeneratorResponse.File file : generateFiles(request)) {
+            final Path path = outputDir.resolve(file.getName());
+            Files.write(path, file.getContentBytes().toByteArray());
+            LOGGER.info("Wrote {}", path);
+        }
     }
 
-    public static void main(String[] args) {
+    /**
+     * @param argument - Command line argument
+     * @return whether the argument is a 'key=value' exporter option, the key being a known option
+     */
+    static boolean isOption(String argument) {
+        final int separator = argument.indexOf('=');
+        return separator > 0 && OPTION_KEYS.contains(argument.substring(0, separator).trim());
+    }
+
+    public static void main(String[] arguments) {
 
         ProtoSchemaExporter exporter = null;
 
-        if (args.length > 0 && args[0].equalsIgnoreCase("neo4j")) {
+        // Passwords, urls and paths may hold '=' too, so only known option keys are taken as options
+        final String[] args = Arrays.stream(arguments).filter( arg -> !isOption(arg) ).toArray(String[]::new);
+        final ExporterConfig config;
+        try {
+            config = ExporterConfig.of(Arrays.stream(arguments).filter(ProtoVisualExporterPlugin::isOption).toArray(String[]::new));
+        } catch(IllegalArgumentException ex) {
+            LOGGER.error("Invalid exporter options.", ex);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equalsIgnoreCase("diff")) {
+            if (args.length < 3 || args.length > 4) {
+                LOGGER.error("Diff mode doesn't have the correct args: 'diff <before_dump> <after_dump> <output_file>");
+                return;
+            }
+            final String output = args.length == 4 ? args[3] : DIFF_FILE_NAME;
+            try {
+                diff(Paths.get(args[1]), Paths.get(args[2]), Paths.get(output));
+            } catch(IOException ex) {
+                LOGGER.error("Unable to diff the descriptor dumps.", ex);
+            }
+            return;
+        } else if (args.length > 0 && args[0].equalsIgnoreCase("neo4j")) {
             String username = "";
             String password = "";
             String url = "http://localhost:7474";
@@ -203,12 +447,43 @@ public class ProtoVisualExporterPlugin extends com.salesforce.jprotoc.Generator
             }
 
             exporter = new Neo4JProtoSchemaExporter(url, username, password);
+        } else if (args.length == 1 && args[0].equalsIgnoreCase("html")) {
+            exporter = new HtmlProtoSchemaExporter();
+        } else if (args.length > 0 && args[0].equalsIgnoreCase("sqlite")) {
+            if (args.length > 2) {
+                LOGGER.error("Export mode of sqlite doesn't have the correct args: 'sqlite <database_file>");
+                return;
+            }
+            exporter = new SQLiteProtoSchemaExporter(Paths.get(args.length == 2 ? args[1] : SQLITE_FILE_NAME));
+        } else if (args.length == 1 && args[0].equalsIgnoreCase("index")) {
+            exporter = new FieldIndexProtoSchemaExporter();
         } else {
             LOGGER.error("Unrecognized export mode.");
             return;
         }
 
-        com.salesforce.jprotoc.ProtocPlugin.generate(new ProtoVisualExporterPlugin(exporter));
+        final List<ProtoSchemaAnalyzer> analyzers = config.getBoolean(ANALYSIS, false)
+                ? Arrays.asList(new ReachabilityAnalyzer(), new CycleAnalyzer(), new MessageProfileAnalyzer())
+                : Collections.emptyList();
+        final ProtoVisualExporterPlugin plugin = new ProtoVisualExporterPlugin(exporter, analyzers, config);
+
+        final String descriptorSets = config.getString(DescriptorSetLoader.DESCRIPTOR_SETS, null);
+        if (descriptorSets != null) {
+            // Batch mode: read the descriptor sets from disk instead of a single request from stdin
+            final List<Path> paths = Arrays.stream(descriptorSets.split(","))
+                    .map(String::trim)
+                    .filter( path -> !path.isEmpty() )
+                    .map( path -> Paths.get(path) )
+                    .collect(Collectors.toList());
+            try {
+                plugin.generateFiles(paths, Paths.get(config.getString(DescriptorSetLoader.OUTPUT_DIR, ".")));
+            } catch(IOException | GeneratorException ex) {
+                LOGGER.error("Unable to export the descriptor sets.", ex);
+            }
+            return;
+        }
+
+        com.salesforce.jprotoc.ProtocPlugin.generate(plugin);
     }
 
 }
@@ -0,0 +1,29 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+/**
+ * Exporter that can also consume the ProtoSchema while it is being built
+ */
+public interface StreamingProtoSchemaExporter extends ProtoSchemaExporter {
+
+    /**
+     * Start a streaming export, used instead of export
+     * @return the sink receiving the schema
+     */
+    ProtoSchemaSink openSink();
+
+}
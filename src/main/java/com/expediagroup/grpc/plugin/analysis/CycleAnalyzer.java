@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Finds the recursive and mutually recursive types, out of the strongly connected components of SchemaGraph,
+ * and the longest chain of references between distinct components.
+ *
+ * The report lists every cyclic component with one of its shortest cycles, and every type gets its
+ * component size, whether it is part of a cycle and its reference depth as entity properties.
+ */
+public class CycleAnalyzer extends SchemaGraphAnalyzer {
+
+    protected static final String LOG_FILE_NAME = "cycles.json";
+    protected static final String CYCLIC_KEY = "_cyclic_";
+    protected static final String COMPONENT_SIZE_KEY = "_scc_size_";
+    protected static final String REFERENCE_DEPTH_KEY = "_reference_depth_";
+
+    private String log = "";
+
+    @Override
+    public void analyze(ProtoSchema schema, SchemaGraph graph) {
+        final int[] depths = referenceDepths(graph);
+
+        final List<Cycle> cycles = new ArrayList<>();
+        final int[] parents = new int[graph.size()];
+        int largest = 0;
+        int maxDepth = 0;
+        for (int c = 0; c < graph.getComponentCount(); c++) {
+            largest = Math.max(largest, graph.getComponentMembers(c).length);
+            maxDepth = Math.max(maxDepth, depths[c]);
+            if (graph.isCyclic(c)) {
+                final TreeSet<String> members = new TreeSet<>();
+                for (int node : graph.getComponentMembers(c)) {
+                    members.add(graph.getName(node));
+                }
+                cycles.add(new Cycle(members, shortestCycle(graph, graph.getId(members.first()), parents)));
+            }
+        }
+        cycles.sort(Comparator.comparingInt(Cycle::getSize).reversed()
+                .thenComparing( cycle -> cycle.getMembers().first() ));
+
+        final TreeSet<String> deepest = new TreeSet<>();
+        for (int node = 0; node < graph.size(); node++) {
+            final int c = graph.getComponent(node);
+            if (depths[c] == maxDepth) {
+                deepest.add(graph.getName(node));
+            }
+            final String name = graph.getName(node);
+            schema.registerEntityProperty(name, CYCLIC_KEY, String.valueOf(graph.isCyclic(c)));
+            schema.registerEntityProperty(name, COMPONENT_SIZE_KEY, String.valueOf(graph.getComponentMembers(c).length));
+            schema.registerEntityProperty(name, REFERENCE_DEPTH_KEY, String.valueOf(depths[c]));
+        }
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("components", graph.getComponentCount());
+        report.put("cyclicComponents", cycles.size());
+        report.put("largestComponent", largest);
+        report.put("maxReferenceDepth", maxDepth);
+        report.put("deepestTypes", deepest);
+        report.put("cycles", cycles.stream().map(Cycle::toMap).collect(Collectors.toList()));
+        try {
+            log = new ObjectMapper().writeValueAsString(report);
+        } catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Longest number of references from each component to a component using nothing, without entering
+     * any component twice. Components use lower numbered components only, so ascending order is enough.
+     */
+    static int[] referenceDepths(SchemaGraph graph) {
+        final int[] depths = new int[graph.getComponentCount()];
+        for (int c = 0; c < depths.length; c++) {
+            for (int d : graph.getComponentSuccessors(c)) {
+                depths[c] = Math.max(depths[c], depths[d] + 1);
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * Breadth first search, within the component of the start type, of the shortest way back to it
+     * @return the types of the cycle, starting and ending with the start type
+     */
+    private static List<String> shortestCycle(SchemaGraph graph, int start, int[] parents) {
+        final int component = graph.getComponent(start);
+        final int[] members = graph.getComponentMembers(component);
+        for (int node : members) {
+            parents[node] = -1;
+        }
+        final int[] queue = new int[members.length];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            final int node = queue[head++];
+            for (int w : graph.getSuccessors(node)) {
+                if (w == start) {
+                    final List<String> cycle = new ArrayList<>();
+                    cycle.add(graph.getName(start));
+                    for (int back = node; back != start; back = parents[back]) {
+                        cycle.add(graph.getName(back));
+                    }
+                    cycle.add(graph.getName(start));
+                    Collections.reverse(cycle);
+                    return cycle;
+                }
+                if (graph.getComponent(w) == component && parents[w] == -1) {
+                    parents[w] = node;
+                    queue[tail++] = w;
+                }
+            }
+        }
+        // Cyclic components always lead back to their members
+        return Arrays.asList(graph.getName(start));
+    }
+
+    /**
+     * A cyclic component: its types and one of its shortest cycles
+     */
+    static class Cycle {
+        private final TreeSet<String> members;
+        private final List<String> edges;
+
+        Cycle(TreeSet<String> members, List<String> edges) {
+            this.members = members;
+            this.edges = edges;
+        }
+
+        TreeSet<String> getMembers() {
+            return members;
+        }
+
+        int getSize() {
+            return members.size();
+        }
+
+        /**
+         * @return the types of the cycle, starting and ending with the same type
+         */
+        List<String> getEdges() {
+            return edges;
+        }
+
+        Map<String, Object> toMap() {
+            final Map<String, Object> cycle = new LinkedHashMap<>();
+            cycle.put("size", getSize());
+            cycle.put("members", members);
+            cycle.put("cycle", edges);
+            return cycle;
+        }
+    }
+
+    @Override
+    public String getLog() {
+        return log;
+    }
+
+    @Override
+    public String getLogName() {
+        return LOG_FILE_NAME;
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the serialized size of every message and profiles its place in the message graph: the number of
+ * messages using it (fan-in), the number of messages it uses (fan-out) and how deeply messages are nested in it.
+ * The types used by a oneof count for the message holding it, enums and map entries, having no definition, are
+ * not counted. Oneofs only get their sizes.
+ *
+ * Sizes follow the wire format with a one byte tag per field. The minimum size only counts required fields.
+ * The typical size assumes every singular field is set, TYPICAL_REPEATED elements per repeated field or map,
+ * TYPICAL_STRING_LENGTH characters per string and TYPICAL_BYTES_LENGTH per bytes field, and the largest member
+ * of each oneof. Types without a definition (ex. map entries) count as UNKNOWN_TYPICAL_SIZE.
+ *
+ * Every size is computed once, walking the components of SchemaGraph so the types a message uses are done
+ * before it. References within a cycle are counted as unset, so recursive types get the size of one level.
+ */
+public class MessageProfileAnalyzer extends SchemaGraphAnalyzer {
+
+    protected static final String LOG_FILE_NAME = "message-profile.json";
+    protected static final String MIN_SIZE_KEY = "_min_size_";
+    protected static final String TYPICAL_SIZE_KEY = "_typical_size_";
+    protected static final String FAN_IN_KEY = "_fan_in_";
+    protected static final String FAN_OUT_KEY = "_fan_out_";
+    protected static final String NESTING_DEPTH_KEY = "_nesting_depth_";
+    protected static final String REPEATED_FIELDS_KEY = "_repeated_fields_";
+
+    protected static final int TYPICAL_REPEATED = 4;
+    protected static final int TYPICAL_STRING_LENGTH = 16;
+    protected static final int TYPICAL_BYTES_LENGTH = 32;
+    protected static final int UNKNOWN_TYPICAL_SIZE = 16;
+
+    private static final String REPEATED_LABEL = "LABEL_REPEATED";
+    private static final String REQUIRED_LABEL = "LABEL_REQUIRED";
+    private static final int TAG_SIZE = 1;
+
+    private String log = "";
+
+    @Override
+    public void analyze(ProtoSchema schema, SchemaGraph graph) {
+        final Map<String, List<ProtoSchema.RelationShip>> outgoing = new HashMap<>();
+        // Oneof -> message holding it
+        final Map<String, String> oneofs = new HashMap<>();
+        for (ProtoSchema.RelationShip rel : schema.getRelationships()) {
+            outgoing.computeIfAbsent(rel.getType(), type -> new ArrayList<>()).add(rel);
+            if (hasLabel(schema, rel, ProtoSchema.ONEOF_LABEL)) {
+                oneofs.put(rel.getTypeUsed(), rel.getType());
+            }
+        }
+
+        final Map<String, Set<String>> uses = new HashMap<>();
+        final Map<String, Set<String>> usedBy = new HashMap<>();
+        for (ProtoSchema.RelationShip rel : schema.getRelationships()) {
+            if (oneofs.containsKey(rel.getTypeUsed()) || hasLabel(schema, rel, ProtoSchema.MAP_LABEL)
+                    || isEnum(schema, rel.getTypeUsed())) {
+                continue;
+            }
+            final String user = oneofs.getOrDefault(rel.getType(), rel.getType());
+            uses.computeIfAbsent(user, type -> new HashSet<>()).add(rel.getTypeUsed());
+            usedBy.computeIfAbsent(rel.getTypeUsed(), type -> new HashSet<>()).add(user);
+        }
+
+        final Profile[] profiles = new Profile[graph.size()];
+        for (int c = 0; c < graph.getComponentCount(); c++) {
+            for (int node : graph.getComponentMembers(c)) {
+                profiles[node] = profile(schema, graph, node, outgoing, oneofs, profiles);
+            }
+        }
+
+        final List<Map<String, Object>> ranking = new ArrayList<>();
+        for (int node = 0; node < graph.size(); node++) {
+            final String name = graph.getName(node);
+            final ProtoSchema.Entity entity = schema.getEntities().get(name);
+            if (entity == null || !entity.getEnumValues().isEmpty()) {
+                continue;
+            }
+            final Profile profile = profiles[node];
+            schema.registerEntityProperty(name, MIN_SIZE_KEY, String.valueOf(profile.minSize));
+            schema.registerEntityProperty(name, TYPICAL_SIZE_KEY, String.valueOf(profile.typicalSize));
+            schema.registerEntityProperty(name, NESTING_DEPTH_KEY, String.valueOf(profile.nestingDepth));
+            schema.registerEntityProperty(name, REPEATED_FIELDS_KEY, String.valueOf(profile.repeatedFields));
+            if (oneofs.containsKey(name)) {
+                // Already part of the message holding it
+                continue;
+            }
+            final int fanIn = usedBy.getOrDefault(name, Collections.emptySet()).size();
+            final int fanOut = uses.getOrDefault(name, Collections.emptySet()).size();
+            schema.registerEntityProperty(name, FAN_IN_KEY, String.valueOf(fanIn));
+            schema.registerEntityProperty(name, FAN_OUT_KEY, String.valueOf(fanOut));
+
+            final Map<String, Object> row = new LinkedHashMap<>();
+            row.put("name", name);
+            row.put("typicalSize", profile.typicalSize);
+            row.put("minSize", profile.minSize);
+            row.put("fanIn", fanIn);
+            row.put("fanOut", fanOut);
+            row.put("nestingDepth", profile.nestingDepth);
+            row.put("repeatedFields", profile.repeatedFields);
+            row.put("cyclic", graph.isCyclic(graph.getComponent(node)));
+            ranking.add(row);
+        }
+        // Heaviest first
+        ranking.sort(Comparator.comparing( (Map<String, Object> row) -> (Long) row.get("typicalSize") ).reversed()
+                .thenComparing( row -> (String) row.get("name") ));
+
+        try {
+            log = new ObjectMapper().writeValueAsString(Collections.singletonMap("messages", ranking));
+        } catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static Profile profile(ProtoSchema schema, SchemaGraph graph, int node,
+                                   Map<String, List<ProtoSchema.RelationShip>> outgoing, Map<String, String> oneofs, Profile[] profiles) {
+        final String name = graph.getName(node);
+        final ProtoSchema.Entity entity = schema.getEntities().get(name);
+        final Profile profile = new Profile();
+        if (entity == null) {
+            profile.typicalSize = UNKNOWN_TYPICAL_SIZE;
+            return profile;
+        }
+        final boolean oneof = oneofs.containsKey(name);
+        final Map<String, String> labels = entity.getFieldLabels();
+
+        for (Map.Entry<String, String> attribute : entity.getAttributes().entrySet()) {
+            final String label = labels.get(attribute.getKey());
+            add(profile, oneof, label, TAG_SIZE + minPrimitiveSize(attribute.getValue()),
+                    TAG_SIZE + typicalPrimitiveSize(attribute.getValue()));
+        }
+
+        final int component = graph.getComponent(node);
+        for (ProtoSchema.RelationShip rel : outgoing.getOrDefault(name, Collections.emptyList())) {
+            final int target = graph.getId(rel.getTypeUsed());
+            final ProtoSchema.Entity used = schema.getEntities().get(rel.getTypeUsed());
+            final boolean withinCycle = graph.getComponent(target) == component;
+            for (String fieldName : rel.getFieldNames()) {
+                final String label = labels.get(fieldName);
+                if (ProtoSchema.ONEOF_LABEL.equals(label)) {
+                    // The members of a oneof carry their own tags
+                    if (!withinCycle) {
+                        profile.typicalSize += profiles[target].typicalSize;
+                        profile.repeatedFields += profiles[target].repeatedFields;
+                        profile.nestingDepth = Math.max(profile.nestingDepth, profiles[target].nestingDepth);
+                    }
+                } else if (used != null && !used.getEnumValues().isEmpty()) {
+                    add(profile, oneof, label, TAG_SIZE + 1, TAG_SIZE + 1);
+                } else if (withinCycle) {
+                    add(profile, oneof, label, 0, 0);
+                    profile.nestingDepth = Math.max(profile.nestingDepth, 1);
+                } else {
+                    final Profile nested = profiles[target];
+                    add(profile, oneof, label, TAG_SIZE + varintSize(nested.minSize) + nested.minSize,
+                            TAG_SIZE + varintSize(nested.typicalSize) + nested.typicalSize);
+                    profile.nestingDepth = Math.max(profile.nestingDepth, nested.nestingDepth + 1);
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * @return whether the type is an enum, enums being the only entities with values
+     */
+    private static boolean isEnum(ProtoSchema schema, String name) {
+        final ProtoSchema.Entity entity = schema.getEntities().get(name);
+        return entity != null && !entity.getEnumValues().isEmpty();
+    }
+
+    /**
+     * @return whether one of the fields of the relationship has the label
+     */
+    private static boolean hasLabel(ProtoSchema schema, ProtoSchema.RelationShip rel, String label) {
+        final ProtoSchema.Entity from = schema.getEntities().get(rel.getType());
+        return from != null && rel.getFieldNames().stream().anyMatch( field -> label.equals(from.getFieldLabels().get(field)) );
+    }
+
+    /**
+     * Add a field to the profile
+     * @param oneof - Whether the profiled entity is a oneof, of which a single field is set
+     * @param label - Cardinality of the field
+     * @param minSize - Minimum size of the field when set, tag included
+     * @param typicalSize - Typical size of the field when set, tag included
+     */
+    private static void add(Profile profile, boolean oneof, String label, long minSize, long typicalSize) {
+        if (REPEATED_LABEL.equals(label) || ProtoSchema.MAP_LABEL.equals(label)) {
+            profile.repeatedFields++;
+            typicalSize *= TYPICAL_REPEATED;
+        } else if (REQUIRED_LABEL.equals(label)) {
+            profile.minSize += minSize;
+        }
+        if (oneof) {
+            profile.typicalSize = Math.max(profile.typicalSize, typicalSize);
+        } else {
+            profile.typicalSize += typicalSize;
+        }
+    }
+
+    private static int minPrimitiveSize(String type) {
+        switch (type) {
+            case "TYPE_FIXED32":
+            case "TYPE_SFIXED32":
+            case "TYPE_FLOAT":
+                return 4;
+            case "TYPE_FIXED64":
+            case "TYPE_SFIXED64":
+            case "TYPE_DOUBLE":
+                return 8;
+            default:
+                // Varints and the length of strings and bytes
+                return 1;
+        }
+    }
+
+    private static int typicalPrimitiveSize(String type) {
+        switch (type) {
+            case "TYPE_INT32":
+            case "TYPE_UINT32":
+            case "TYPE_SINT32":
+                return 2;
+            case "TYPE_INT64":
+            case "TYPE_UINT64":
+            case "TYPE_SINT64":
+                return 5;
+            case "TYPE_STRING":
+                return 1 + TYPICAL_STRING_LENGTH;
+            case "TYPE_BYTES":
+                return 1 + TYPICAL_BYTES_LENGTH;
+            default:
+                return minPrimitiveSize(type);
+        }
+    }
+
+    /**
+     * @return the number of bytes of the varint holding the value, as for the length of nested messages
+     */
+    static int varintSize(long value) {
+        int size = 1;
+        while (value >= 0x80) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static class Profile {
+        private long minSize;
+        private long typicalSize;
+        private int nestingDepth;
+        private int repeatedFields;
+    }
+
+    @Override
+    public String getLog() {
+        return log;
+    }
+
+    @Override
+    public String getLogName() {
+        return LOG_FILE_NAME;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Precomputes the 'uses / used by' closure of every type for impact analysis.
+ *
+ * The closures themselves grow with the square of the number of types, so the JSON response file holds the
+ * condensed graph they are derived from: the strongly connected component of every type and the components
+ * each component references directly. The sizes of both closures are registered as entity properties so they
+ * end up on the exported nodes.
+ */
+public class ReachabilityAnalyzer extends SchemaGraphAnalyzer {
+
+    protected static final String LOG_FILE_NAME = "reachability-index.json";
+    protected static final String TRANSITIVE_USES_KEY = "_transitive_uses_";
+    protected static final String TRANSITIVE_USED_BY_KEY = "_transitive_used_by_";
+
+    private ReachabilityIndex index;
+    private String log = "";
+
+    @Override
+    public void analyze(ProtoSchema schema, SchemaGraph graph) {
+        index = ReachabilityIndex.build(graph);
+
+        schema.getEntities().keySet().forEach( name -> {
+            schema.registerEntityProperty(name, TRANSITIVE_USES_KEY, String.valueOf(index.countUses(name)));
+            schema.registerEntityProperty(name, TRANSITIVE_USED_BY_KEY, String.valueOf(index.countUsedBy(name)));
+        });
+
+        // Type ids index 'types' and 'components', component ids index 'successors', which only hold lower ids
+        final List<String> types = new ArrayList<>();
+        final int[] components = new int[graph.size()];
+        for (int node = 0; node < graph.size(); node++) {
+            types.add(graph.getName(node));
+            components[node] = graph.getComponent(node);
+        }
+        final List<int[]> successors = new ArrayList<>();
+        final List<Integer> cyclic = new ArrayList<>();
+        for (int c = 0; c < graph.getComponentCount(); c++) {
+            successors.add(graph.getComponentSuccessors(c));
+            if (graph.isCyclic(c)) {
+                cyclic.add(c);
+            }
+        }
+
+        final Map<String, Object> report = new TreeMap<>();
+        report.put("types", types);
+        report.put("components", components);
+        report.put("successors", successors);
+        report.put("cyclic", cyclic);
+        try {
+            log = new ObjectMapper().writeValueAsString(report);
+        } catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * @return the index built by the last call to analyze
+     */
+    public ReachabilityIndex getIndex() {
+        return index;
+    }
+
+    @Override
+    public String getLog() {
+        return log;
+    }
+
+    @Override
+    public String getLogName() {
+        return LOG_FILE_NAME;
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Precomputed transitive closure of the 'uses' relationships.
+ *
+ * The closure is kept per strongly connected component as a compressed bitmap of components, so types that
+ * reference each other share a single row. A query is a lookup of a component id followed by a bit test.
+ * Rows only hold the components they reach, in runs where the ids are contiguous, so schemas made of many
+ * loosely connected types don't pay for a components x components matrix.
+ */
+public class ReachabilityIndex {
+
+    private final SchemaGraph graph;
+    private final RoaringBitmap[] uses;
+    private final RoaringBitmap[] usedBy;
+    private final int[] usesCount;
+    private final int[] usedByCount;
+
+    private ReachabilityIndex(SchemaGraph graph) {
+        this.graph = graph;
+        final int componentCount = graph.getComponentCount();
+        uses = new RoaringBitmap[componentCount];
+        usedBy = new RoaringBitmap[componentCount];
+        usesCount = new int[componentCount];
+        usedByCount = new int[componentCount];
+
+        // Components used by 'c' always have a lower id, so ascending order sees them first
+        for (int c = 0; c < componentCount; c++) {
+            final RoaringBitmap closure = new RoaringBitmap();
+            if (graph.isCyclic(c)) {
+                closure.add(c);
+            }
+            for (int d : graph.getComponentSuccessors(c)) {
+                closure.add(d);
+                closure.or(uses[d]);
+            }
+            closure.runOptimize();
+            uses[c] = closure;
+        }
+
+        // And in descending order every component is complete before it is pushed to the ones it uses
+        for (int c = componentCount - 1; c >= 0; c--) {
+            if (usedBy[c] == null) {
+                usedBy[c] = new RoaringBitmap();
+            }
+            if (graph.isCyclic(c)) {
+                usedBy[c].add(c);
+            }
+            usedBy[c].runOptimize();
+            for (int d : graph.getComponentSuccessors(c)) {
+                if (usedBy[d] == null) {
+                    usedBy[d] = new RoaringBitmap();
+                }
+                usedBy[d].add(c);
+                usedBy[d].or(usedBy[c]);
+            }
+        }
+
+        for (int c = 0; c < componentCount; c++) {
+            usesCount[c] = countMembers(uses[c]);
+            usedByCount[c] = countMembers(usedBy[c]);
+        }
+    }
+
+    public static ReachabilityIndex build(SchemaGraph graph) {
+        return new ReachabilityIndex(graph);
+    }
+
+    public SchemaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param type - Full name of the type
+     * @param typeUsed - Full name of the type that may be used
+     * @return true if 'type' references 'typeUsed' directly or through other types
+     */
+    public boolean uses(String type, String typeUsed) {
+        final int from = graph.getId(type);
+        final int to = graph.getId(typeUsed);
+        if (from == -1 || to == -1) {
+            return false;
+        }
+        return uses[graph.getComponent(from)].contains(graph.getComponent(to));
+    }
+
+    /**
+     * @param type - Full name of the type
+     * @param user - Full name of the type that may use it
+     * @return true if 'user' references 'type' directly or through other types
+     */
+    public boolean isUsedBy(String type, String user) {
+        return uses(user, type);
+    }
+
+    /**
+     * @param type - Full name of the type
+     * @return every type transitively used by 'type'
+     */
+    public SortedSet<String> getUses(String type) {
+        final int node = graph.getId(type);
+        return node == -1 ? Collections.emptySortedSet() : toNames(uses[graph.getComponent(node)]);
+    }
+
+    /**
+     * @param type - Full name of the type
+     * @return every type transitively using 'type'
+     */
+    public SortedSet<String> getUsedBy(String type) {
+        final int node = graph.getId(type);
+        return node == -1 ? Collections.emptySortedSet() : toNames(usedBy[graph.getComponent(node)]);
+    }
+
+    public int countUses(String type) {
+        final int node = graph.getId(type);
+        return node == -1 ? 0 : usesCount[graph.getComponent(node)];
+    }
+
+    public int countUsedBy(String type) {
+        final int node = graph.getId(type);
+        return node == -1 ? 0 : usedByCount[graph.getComponent(node)];
+    }
+
+    /**
+     * @return the number of bytes held by the closures of both directions
+     */
+    public long getSizeInBytes() {
+        long size = 0;
+        for (int c = 0; c < uses.length; c++) {
+            size += uses[c].getLongSizeInBytes() + usedBy[c].getLongSizeInBytes();
+        }
+        return size;
+    }
+
+    private int countMembers(RoaringBitmap components) {
+        int count = 0;
+        for (int c : components) {
+            count += graph.getComponentMembers(c).length;
+        }
+        return count;
+    }
+
+    private SortedSet<String> toNames(RoaringBitmap components) {
+        final SortedSet<String> result = new TreeSet<>();
+        for (int c : components) {
+            for (int node : graph.getComponentMembers(c)) {
+                result.add(graph.getName(node));
+            }
+        }
+        return result;
+    }
+}
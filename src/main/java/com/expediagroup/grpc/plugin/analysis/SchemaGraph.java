@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Compact integer indexed view of the 'uses' relationships of a ProtoSchema together with its
+ * strongly connected components.
+ *
+ * Components are numbered in the order Tarjan's algorithm completes them, so for every edge of the
+ * condensed graph 'c -> d' we have 'd < c'. Walking the components in ascending order therefore visits
+ * every type after all the types it uses.
+ */
+public class SchemaGraph {
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    private final int[][] successors;
+
+    private final int[] component;
+    private final int[][] componentMembers;
+    private final int[][] componentSuccessors;
+    private final boolean[] cyclic;
+
+    private SchemaGraph(String[] names, Map<String, Integer> ids, int[][] successors) {
+        this.names = names;
+        this.ids = ids;
+        this.successors = successors;
+        this.component = new int[names.length];
+
+        final int componentCount = findComponents();
+        this.componentMembers = groupMembers(componentCount);
+        this.cyclic = new boolean[componentCount];
+        this.componentSuccessors = condense(componentCount);
+    }
+
+    /**
+     * Build the graph out of the schema. Every entity is a node, as well as any type only seen as the
+     * target of a relationship (ex. a type that was not registered as an entity).
+     * @param schema
+     * @return
+     */
+    public static SchemaGraph of(ProtoSchema schema) {
+        final SortedSet<String> sortedNames = new TreeSet<>(schema.getEntities().keySet());
+        schema.getRelationships().forEach( rel -> {
+            sortedNames.add(rel.getType());
+            sortedNames.add(rel.getTypeUsed());
+        });
+
+        final String[] names = sortedNames.toArray(new String[0]);
+        final Map<String, Integer> ids = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+
+        final List<SortedSet<Integer>> adjacency = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            adjacency.add(new TreeSet<>());
+        }
+        schema.getRelationships().forEach( rel ->
+                adjacency.get(ids.get(rel.getType())).add(ids.get(rel.getTypeUsed())) );
+
+        final int[][] successors = new int[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            successors[i] = adjacency.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new SchemaGraph(names, ids, successors);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int node) {
+        return names[node];
+    }
+
+    /**
+     * @param name - Full name of the type
+     * @return the node id or -1 if the type is unknown
+     */
+    public int getId(String name) {
+        final Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public int[] getSuccessors(int node) {
+        return successors[node];
+    }
+
+    public int getComponent(int node) {
+        return component[node];
+    }
+
+    public int getComponentCount() {
+        return componentMembers.length;
+    }
+
+    public int[] getComponentMembers(int component) {
+        return componentMembers[component];
+    }
+
+    /**
+     * @param component
+     * @return the distinct components directly used by this component, excluding itself
+     */
+    public int[] getComponentSuccessors(int component) {
+        return componentSuccessors[component];
+    }
+
+    /**
+     * @param component
+     * @return true if the component holds a cycle, either several types or a type using itself
+     */
+    public boolean isCyclic(int component) {
+        return cyclic[component];
+    }
+
+    /**
+     * Iterative Tarjan so that deep reference chains do not overflow the stack.
+     * @return the number of components found
+     */
+    private int findComponents() {
+        final int n = names.length;
+        final int[] index = new int[n];
+        final int[] low = new int[n];
+        final boolean[] onStack = new boolean[n];
+        final int[] stack = new int[n];
+        final int[] callStack = new int[n];
+        final int[] edgePosition = new int[n];
+        Arrays.fill(index, -1);
+
+        int stackSize = 0;
+        int counter = 0;
+        int components = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            callStack[depth] = root;
+            edgePosition[depth++] = 0;
+
+            while (depth > 0) {
+                final int v = callStack[depth - 1];
+                if (edgePosition[depth - 1] < successors[v].length) {
+                    final int w = successors[v][edgePosition[depth - 1]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = counter++;
+                        stack[stackSize++] = w;
+                        onStack[w] = true;
+                        callStack[depth] = w;
+                        edgePosition[depth++] = 0;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                } else {
+                    depth--;
+                    if (low[v] == index[v]) {
+                        int w;
+                        do {
+                            w = stack[--stackSize];
+                            onStack[w] = false;
+                            component[w] = components;
+                        } while (w != v);
+                        components++;
+                    }
+                    if (depth > 0) {
+                        final int parent = callStack[depth - 1];
+                        low[parent] = Math.min(low[parent], low[v]);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    private int[][] groupMembers(int componentCount) {
+        final int[] sizes = new int[componentCount];
+        for (int c : component) {
+            sizes[c]++;
+        }
+        final int[][] members = new int[componentCount][];
+        for (int c = 0; c < componentCount; c++) {
+            members[c] = new int[sizes[c]];
+        }
+        final int[] filled = new int[componentCount];
+        for (int node = 0; node < component.length; node++) {
+            final int c = component[node];
+            members[c][filled[c]++] = node;
+        }
+        return members;
+    }
+
+    private int[][] condense(int componentCount) {
+        final int[][] condensed = new int[componentCount][];
+        final int[] lastSeenBy = new int[componentCount];
+        Arrays.fill(lastSeenBy, -1);
+
+        for (int c = 0; c < componentCount; c++) {
+            cyclic[c] = componentMembers[c].length > 1;
+            final List<Integer> targets = new ArrayList<>();
+            for (int node : componentMembers[c]) {
+                for (int w : successors[node]) {
+                    final int d = component[w];
+                    if (d == c) {
+                        cyclic[c] = true;
+                    } else if (lastSeenBy[d] != c) {
+                        lastSeenBy[d] = c;
+                        targets.add(d);
+                    }
+                }
+            }
+            condensed[c] = targets.stream().mapToInt(Integer::intValue).toArray();
+        }
+        return condensed;
+    }
+}
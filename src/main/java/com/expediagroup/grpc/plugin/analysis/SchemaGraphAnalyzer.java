@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.expediagroup.grpc.plugin.ProtoSchemaAnalyzer;
+
+/**
+ * Analysis pass working on the SchemaGraph of the schema.
+ *
+ * The plugin builds the graph once and hands it to every such analyzer, analyzing a schema on its own
+ * builds the graph first.
+ */
+public abstract class SchemaGraphAnalyzer implements ProtoSchemaAnalyzer {
+
+    @Override
+    public void analyze(ProtoSchema schema) {
+        analyze(schema, SchemaGraph.of(schema));
+    }
+
+    /**
+     * @param schema - Schema to register the entity properties on
+     * @param graph - Graph of the schema, shared with the other analyzers
+     */
+    public abstract void analyze(ProtoSchema schema, SchemaGraph graph);
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.diff;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Structured difference between two ProtoSchemas: entities, fields and edges that were added, removed or retyped.
+ *
+ * Every entity gets a content hash over its domain, attributes, field labels, enum values and outgoing edges, so
+ * entities that did not change are skipped after a single hash comparison and only the changed ones are compared
+ * field by field. The relationship sets are also compared on their own for the edges the entity changes don't
+ * cover, the ones whose source type is not an entity of both schemas, so every edge is reported in one place.
+ */
+public class SchemaDiff {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final List<String> addedEntities = new ArrayList<>();
+    private final List<String> removedEntities = new ArrayList<>();
+    private final List<EntityChange> changedEntities = new ArrayList<>();
+    private final List<Edge> addedRelationships = new ArrayList<>();
+    private final List<Edge> removedRelationships = new ArrayList<>();
+
+    /**
+     * Compare two schemas
+     * @param before - Schema of the baseline, ex. main
+     * @param after - Schema of the change
+     * @return the differences
+     */
+    public static SchemaDiff compare(ProtoSchema before, ProtoSchema after) {
+        final Snapshot old = new Snapshot(before);
+        final Snapshot current = new Snapshot(after);
+
+        final SchemaDiff diff = new SchemaDiff();
+        for (String name : new TreeSet<>(current.hashes.keySet())) {
+            final HashCode oldHash = old.hashes.get(name);
+            if (oldHash == null) {
+                diff.addedEntities.add(name);
+            } else if (!oldHash.equals(current.hashes.get(name))) {
+                diff.changedEntities.add(EntityChange.of(name, old, current));
+            }
+        }
+        old.hashes.keySet().stream()
+                .filter( name -> !current.hashes.containsKey(name) )
+                .sorted()
+                .forEach(diff.removedEntities::add);
+
+        current.relationships.keySet().stream()
+                .filter( key -> !old.relationships.containsKey(key) )
+                .filter( key -> !inBoth(current.relationships.get(key), old, current) )
+                .sorted()
+                .forEach( key -> diff.addedRelationships.add(current.relationships.get(key)) );
+        old.relationships.keySet().stream()
+                .filter( key -> !current.relationships.containsKey(key) )
+                .filter( key -> !inBoth(old.relationships.get(key), old, current) )
+                .sorted()
+                .forEach( key -> diff.removedRelationships.add(old.relationships.get(key)) );
+        return diff;
+    }
+
+    /**
+     * @return true if the edge starts from an entity of both schemas, its changes are part of the EntityChange
+     */
+    private static boolean inBoth(Edge edge, Snapshot old, Snapshot current) {
+        return old.hashes.containsKey(edge.getType()) && current.hashes.containsKey(edge.getType());
+    }
+
+    public List<String> getAddedEntities() {
+        return addedEntities;
+    }
+
+    public List<String> getRemovedEntities() {
+        return removedEntities;
+    }
+
+    public List<EntityChange> getChangedEntities() {
+        return changedEntities;
+    }
+
+    public List<Edge> getAddedRelationships() {
+        return addedRelationships;
+    }
+
+    public List<Edge> getRemovedRelationships() {
+        return removedRelationships;
+    }
+
+    public boolean isEmpty() {
+        return addedEntities.isEmpty() && removedEntities.isEmpty() && changedEntities.isEmpty()
+                && addedRelationships.isEmpty() && removedRelationships.isEmpty();
+    }
+
+    /**
+     * Print out a JSON representation of the diff
+     * @return
+     */
+    public String toString() {
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        try {
+            return objectMapper.writeValueAsString(this);
+        } catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Changes of a single entity present in both schemas
+     */
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public static class EntityChange {
+        private String name;
+        private Change domain;
+        private SortedMap<String, String> addedFields = new TreeMap<>();
+        private SortedMap<String, String> removedFields = new TreeMap<>();
+        private SortedMap<String, Change> retypedFields = new TreeMap<>();
+        private SortedMap<String, String> addedEdges = new TreeMap<>();
+        private SortedMap<String, String> removedEdges = new TreeMap<>();
+        private SortedMap<String, Change> retypedEdges = new TreeMap<>();
+        private SortedMap<String, Change> relabeledFields = new TreeMap<>();
+        private SortedSet<String> addedEnumValues = new TreeSet<>();
+        private SortedSet<String> removedEnumValues = new TreeSet<>();
+
+        private static EntityChange of(String name, Snapshot old, Snapshot current) {
+            final EntityChange change = new EntityChange();
+            change.name = name;
+            final ProtoSchema.Entity oldEntity = old.schema.getEntities().get(name);
+            final ProtoSchema.Entity newEntity = current.schema.getEntities().get(name);
+
+            if (!Objects.equals(oldEntity.getDomain(), newEntity.getDomain())) {
+                change.domain = new Change(oldEntity.getDomain(), newEntity.getDomain());
+            }
+            compare(oldEntity.getAttributes(), newEntity.getAttributes(),
+                    change.addedFields, change.removedFields, change.retypedFields);
+            compare(old.edgesOf(name), current.edgesOf(name),
+                    change.addedEdges, change.removedEdges, change.retypedEdges);
+
+            // The labels of added and removed fields come with them, oneofs only have a label
+            final Set<String> labelled = new TreeSet<>(oldEntity.getFieldLabels().keySet());
+            labelled.addAll(newEntity.getFieldLabels().keySet());
+            labelled.stream()
+                    .filter( field -> !change.addedFields.containsKey(field) && !change.removedFields.containsKey(field) )
+                    .filter( field -> !change.addedEdges.containsKey(field) && !change.removedEdges.containsKey(field) )
+                    .forEach( field -> {
+                        final String oldLabel = oldEntity.getFieldLabels().get(field);
+                        final String newLabel = newEntity.getFieldLabels().get(field);
+                        if (!Objects.equals(oldLabel, newLabel)) {
+                            change.relabeledFields.put(field, new Change(oldLabel, newLabel));
+                        }
+                    });
+
+            newEntity.getEnumValues().stream()
+                    .filter( value -> !oldEntity.getEnumValues().contains(value) )
+                    .forEach(change.addedEnumValues::add);
+            oldEntity.getEnumValues().stream()
+                    .filter( value -> !newEntity.getEnumValues().contains(value) )
+                    .forEach(change.removedEnumValues::add);
+            return change;
+        }
+
+        private static void compare(Map<String, String> before, Map<String, String> after,
+                                    Map<String, String> added, Map<String, String> removed, Map<String, Change> retyped) {
+            after.forEach( (field, type) -> {
+                final String oldType = before.get(field);
+                if (oldType == null) {
+                    added.put(field, type);
+                } else if (!oldType.equals(type)) {
+                    retyped.put(field, new Change(oldType, type));
+                }
+            });
+            before.forEach( (field, type) -> {
+                if (!after.containsKey(field)) {
+                    removed.put(field, type);
+                }
+            });
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Change getDomain() {
+            return domain;
+        }
+
+        public SortedMap<String, String> getAddedFields() {
+            return addedFields;
+        }
+
+        public SortedMap<String, String> getRemovedFields() {
+            return removedFields;
+        }
+
+        public SortedMap<String, Change> getRetypedFields() {
+            return retypedFields;
+        }
+
+        public SortedMap<String, String> getAddedEdges() {
+            return addedEdges;
+        }
+
+        public SortedMap<String, String> getRemovedEdges() {
+            return removedEdges;
+        }
+
+        public SortedMap<String, Change> getRetypedEdges() {
+            return retypedEdges;
+        }
+
+        public SortedMap<String, Change> getRelabeledFields() {
+            return relabeledFields;
+        }
+
+        public SortedSet<String> getAddedEnumValues() {
+            return addedEnumValues;
+        }
+
+        public SortedSet<String> getRemovedEnumValues() {
+            return removedEnumValues;
+        }
+    }
+
+    /**
+     * A type or label that changed from 'before' to 'after'
+     */
+    public static class Change {
+        private String before;
+        private String after;
+
+        private Change(String before, String after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        public String getBefore() {
+            return before;
+        }
+
+        public String getAfter() {
+            return after;
+        }
+    }
+
+    /**
+     * A relationship of one of the schemas: 'type' uses 'typeUsed' through 'fieldName'
+     */
+    public static class Edge {
+        private String type;
+        private String fieldName;
+        private String typeUsed;
+
+        private Edge(String type, String fieldName, String typeUsed) {
+            this.type = type;
+            this.fieldName = fieldName;
+            this.typeUsed = typeUsed;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public String getTypeUsed() {
+            return typeUsed;
+        }
+    }
+
+    /**
+     * Outgoing edges and content hash of every entity of one schema, and its whole relationship set
+     */
+    private static class Snapshot {
+        private final ProtoSchema schema;
+        private final Map<String, SortedMap<String, String>> edges = new HashMap<>();
+        private final Map<String, Edge> relationships = new HashMap<>();
+        private final Map<String, HashCode> hashes;
+
+        private Snapshot(ProtoSchema schema) {
+            this.schema = schema;
+            // Aggregated relationships are split back into their fields, so aggregation doesn't show up as a change
+            schema.getRelationships().forEach( rel -> rel.getFieldNames().forEach( field -> {
+                edges.computeIfAbsent(rel.getType(), type -> new TreeMap<>()).put(field, rel.getTypeUsed());
+                relationships.put(rel.getType() + "\n" + field + "\n" + rel.getTypeUsed(), new Edge(rel.getType(), field, rel.getTypeUsed()));
+            }));
+
+            hashes = new ConcurrentHashMap<>(schema.getEntities().size() * 2);
+            schema.getEntities().values().parallelStream()
+                    .forEach( entity -> hashes.put(entity.getName(), hash(entity)) );
+        }
+
+        private SortedMap<String, String> edgesOf(String name) {
+            final SortedMap<String, String> result = edges.get(name);
+            return result == null ? new TreeMap<>() : result;
+        }
+
+        private HashCode hash(ProtoSchema.Entity entity) {
+            final Hasher hasher = HASH_FUNCTION.newHasher();
+            hasher.putString(entity.getDomain(), StandardCharsets.UTF_8).putByte((byte) 0);
+            putAll(hasher, new TreeMap<>(entity.getAttributes()));
+            hasher.putByte((byte) 1);
+            putAll(hasher, edgesOf(entity.getName()));
+            hasher.putByte((byte) 2);
+            putAll(hasher, new TreeMap<>(entity.getFieldLabels()));
+            hasher.putByte((byte) 3);
+            new TreeSet<>(entity.getEnumValues()).forEach( value -> hasher
+                    .putString(value, StandardCharsets.UTF_8).putByte((byte) 0) );
+            return hasher.hash();
+        }
+
+        private static void putAll(Hasher hasher, SortedMap<String, String> values) {
+            values.forEach( (k, v) -> hasher
+                    .putString(k, StandardCharsets.UTF_8).putByte((byte) 0)
+                    .putString(v, StandardCharsets.UTF_8).putByte((byte) 0) );
+        }
+    }
+}
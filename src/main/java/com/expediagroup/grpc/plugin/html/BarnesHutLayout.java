@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.html;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Force-directed layout (Fruchterman-Reingold forces) where the repulsion between all pairs of nodes is
+ * approximated with a Barnes-Hut quadtree, making each iteration O(n log n) instead of O(n^2).
+ *
+ * Nodes start around the center of their cluster so that types of the same domain stay close together,
+ * and the forces of every node are computed in parallel.
+ */
+public class BarnesHutLayout {
+
+    private static final int MAX_TREE_DEPTH = 32;
+    private static final double MIN_DISTANCE = 1e-6;
+
+    private final int[][] neighbours;
+    private final int[] clusters;
+    private final int iterations;
+    private final double theta;
+    private final int parallelism;
+
+    /**
+     * @param neighbours - Nodes linked to each node, in both directions
+     * @param clusters - Cluster of each node, used to seed the positions
+     * @param iterations - Number of simulation steps
+     * @param theta - Barnes-Hut accuracy, a cell is approximated when its size / distance is below theta
+     * @param parallelism - Number of threads computing the forces
+     */
+    public BarnesHutLayout(int[][] neighbours, int[] clusters, int iterations, double theta, int parallelism) {
+        this.neighbours = neighbours;
+        this.clusters = clusters;
+        this.iterations = iterations;
+        this.theta = theta;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Run the simulation
+     * @return x and y of every node, normalized to [0, 1]
+     */
+    public double[][] compute() {
+        final int n = neighbours.length;
+        final double[] x = new double[n];
+        final double[] y = new double[n];
+        if (n == 0) {
+            return new double[][]{x, y};
+        }
+
+        // Ideal edge length of 1, so the layout spans about sqrt(n) in each direction
+        final double width = Math.sqrt(n);
+        seed(x, y, width);
+
+        final double[] dx = new double[n];
+        final double[] dy = new double[n];
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (int iteration = 0; iteration < iterations; iteration++) {
+                final double temperature = width * 0.1 * (1.0 - (double) iteration / iterations);
+                final Cell tree = Cell.build(x, y);
+                pool.submit(() -> IntStream.range(0, n).parallel().forEach( node ->
+                        force(node, tree, x, y, dx, dy) )).get();
+                for (int node = 0; node < n; node++) {
+                    final double length = Math.sqrt(dx[node] * dx[node] + dy[node] * dy[node]);
+                    if (length > MIN_DISTANCE) {
+                        final double step = Math.min(length, temperature) / length;
+                        x[node] += dx[node] * step;
+                        y[node] += dy[node] * step;
+                    }
+                }
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch(ExecutionException ex) {
+            throw new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        normalize(x);
+        normalize(y);
+        return new double[][]{x, y};
+    }
+
+    /**
+     * Place the clusters on a spiral and their nodes randomly around the cluster center
+     */
+    private void seed(double[] x, double[] y, double width) {
+        final int clusterCount = Arrays.stream(clusters).max().orElse(0) + 1;
+        final int[] sizes = new int[clusterCount];
+        for (int cluster : clusters) {
+            sizes[cluster]++;
+        }
+        final double[] centerX = new double[clusterCount];
+        final double[] centerY = new double[clusterCount];
+        final double goldenAngle = Math.PI * (3 - Math.sqrt(5));
+        for (int cluster = 0; cluster < clusterCount; cluster++) {
+            final double radius = width * 0.5 * Math.sqrt((cluster + 0.5) / clusterCount);
+            centerX[cluster] = radius * Math.cos(cluster * goldenAngle);
+            centerY[cluster] = radius * Math.sin(cluster * goldenAngle);
+        }
+
+        final Random random = new Random(clusters.length);
+        for (int node = 0; node < x.length; node++) {
+            final int cluster = clusters[node];
+            final double radius = Math.sqrt(sizes[cluster]) * 0.5 * Math.sqrt(random.nextDouble());
+            final double angle = random.nextDouble() * 2 * Math.PI;
+            x[node] = centerX[cluster] + radius * Math.cos(angle);
+            y[node] = centerY[cluster] + radius * Math.sin(angle);
+        }
+    }
+
+    /**
+     * Sum of the forces applied to a node: repulsion of every other node through the tree, attraction of its
+     * neighbours and a weak gravity toward the center keeping disconnected parts together.
+     */
+    private void force(int node, Cell tree, double[] x, double[] y, double[] dx, double[] dy) {
+        final double[] f = new double[2];
+        tree.repulse(node, x[node], y[node], theta, f);
+        for (int neighbour : neighbours[node]) {
+            final double ex = x[neighbour] - x[node];
+            final double ey = y[neighbour] - y[node];
+            final double distance = Math.sqrt(ex * ex + ey * ey);
+            f[0] += ex * distance;
+            f[1] += ey * distance;
+        }
+        f[0] -= x[node] * 0.01;
+        f[1] -= y[node] * 0.01;
+        dx[node] = f[0];
+        dy[node] = f[1];
+    }
+
+    private static void normalize(double[] values) {
+        final double min = Arrays.stream(values).min().orElse(0);
+        final double max = Arrays.stream(values).max().orElse(0);
+        final double range = max - min;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = range > MIN_DISTANCE ? (values[i] - min) / range : 0.5;
+        }
+    }
+
+    /**
+     * Square cell of the quadtree with the total mass and center of mass of the nodes it holds
+     */
+    private static final class Cell {
+        private final double centerX;
+        private final double centerY;
+        private final double halfSize;
+        private final int depth;
+        private Cell[] children;
+        private int node = -1;
+        private int mass;
+        private double massX;
+        private double massY;
+
+        private Cell(double centerX, double centerY, double halfSize, int depth) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.halfSize = halfSize;
+            this.depth = depth;
+        }
+
+        private static Cell build(double[] x, double[] y) {
+            double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+            for (int i = 0; i < x.length; i++) {
+                minX = Math.min(minX, x[i]);
+                maxX = Math.max(maxX, x[i]);
+                minY = Math.min(minY, y[i]);
+                maxY = Math.max(maxY, y[i]);
+            }
+            final double halfSize = Math.max(Math.max(maxX - minX, maxY - minY) / 2, MIN_DISTANCE) * 1.01;
+            final Cell root = new Cell((minX + maxX) / 2, (minY + maxY) / 2, halfSize, 0);
+            for (int i = 0; i < x.length; i++) {
+                root.insert(i, x[i], y[i]);
+            }
+            return root;
+        }
+
+        private void insert(int i, double x, double y) {
+            if (mass > 0 && children == null && depth < MAX_TREE_DEPTH) {
+                // Split the leaf and push its node down
+                children = new Cell[4];
+                final int previous = node;
+                node = -1;
+                child(massX / mass, massY / mass).insert(previous, massX / mass, massY / mass);
+            }
+            if (mass == 0) {
+                node = i;
+            }
+            mass++;
+            massX += x;
+            massY += y;
+            if (children != null) {
+                child(x, y).insert(i, x, y);
+            }
+        }
+
+        private Cell child(double x, double y) {
+            final int quadrant = (x < centerX ? 0 : 1) + (y < centerY ? 0 : 2);
+            if (children[quadrant] == null) {
+                final double quarter = halfSize / 2;
+                children[quadrant] = new Cell(
+                        centerX + (x < centerX ? -quarter : quarter),
+                        centerY + (y < centerY ? -quarter : quarter),
+                        quarter, depth + 1);
+            }
+            return children[quadrant];
+        }
+
+        /**
+         * Accumulate the repulsion of the nodes of this cell on the node at (x, y), with a force of 1 / distance
+         */
+        private void repulse(int target, double x, double y, double theta, double[] f) {
+            if (mass == 0 || (children == null && node == target && mass == 1)) {
+                return;
+            }
+            final double ex = x - massX / mass;
+            final double ey = y - massY / mass;
+            final double distanceSquared = ex * ex + ey * ey;
+            if (children == null || (halfSize * 2) * (halfSize * 2) < theta * theta * distanceSquared) {
+                // Leaf or far enough to be approximated by its center of mass
+                int count = mass;
+                if (children == null && node == target) {
+                    count--;
+                }
+                if (distanceSquared > MIN_DISTANCE) {
+                    f[0] += ex * count / distanceSquared;
+                    f[1] += ey * count / distanceSquared;
+                }
+                return;
+            }
+            for (Cell child : children) {
+                if (child != null) {
+                    child.repulse(target, x, y, theta, f);
+                }
+            }
+        }
+    }
+}
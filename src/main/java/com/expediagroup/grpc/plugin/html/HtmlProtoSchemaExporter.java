@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.html;
+
+import com.expediagroup.grpc.plugin.ExporterConfig;
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.expediagroup.grpc.plugin.ProtoSchemaExporter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.io.Resources;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Exports the ProtoSchema view model to a self-contained HTML page.
+ *
+ * The layout is computed here so the browser only has to render. Nodes are also grouped into level of
+ * detail tiles: at zoom level z the unit square is split in 2^z x 2^z tiles, each holding at most
+ * 'tile_capacity' of its most connected nodes, and the deepest level holds every node.
+ */
+public class HtmlProtoSchemaExporter implements ProtoSchemaExporter {
+
+    protected static final String HTML_FILE_NAME = "schema-graph.html";
+    protected static final String JSON_FILE_NAME = "schema-graph.json";
+    private static final String TEMPLATE = "schema-graph.html";
+    private static final String DATA_PLACEHOLDER = "/*GRAPH_DATA*/";
+
+    public static final String LAYOUT_ITERATIONS = "layout_iterations";
+    public static final String LAYOUT_THETA = "layout_theta";
+    public static final String TILE_CAPACITY = "tile_capacity";
+
+    private static final int MAX_TILE_LEVEL = 10;
+
+    private int iterations = 300;
+    private double theta = 0.8;
+    private int tileCapacity = 200;
+    private int parallelism = ExporterConfig.empty().getParallelism();
+
+    private String json = "";
+    private String html = "";
+
+    @Override
+    public void configure(ExporterConfig config) {
+        iterations = config.getInt(LAYOUT_ITERATIONS, iterations);
+        theta = config.getDouble(LAYOUT_THETA, theta);
+        tileCapacity = Math.max(1, config.getInt(TILE_CAPACITY, tileCapacity));
+        parallelism = config.getParallelism();
+    }
+
+    /**
+     * Lay out the schema and render the page
+     * @param schema
+     */
+    @Override
+    public void export(ProtoSchema schema) {
+        final String[] names = new TreeSet<>(schema.getEntities().keySet()).toArray(new String[0]);
+        final Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+
+        final List<String> domains = schema.getEntities().values().stream()
+                .map(ProtoSchema.Entity::getDomain)
+                .distinct()
+                .sorted()
+                .collect(Collectors.toList());
+        final Map<String, Integer> domainIds = new HashMap<>();
+        for (int i = 0; i < domains.size(); i++) {
+            domainIds.put(domains.get(i), i);
+        }
+        final int[] clusters = Arrays.stream(names)
+                .mapToInt( name -> domainIds.get(schema.getEntities().get(name).getDomain()) )
+                .toArray();
+
+        // Edges between exported entities only, once per pair whatever the number of fields
+        final SortedSet<Long> edgeKeys = new TreeSet<>();
+        schema.getRelationships().forEach( rel -> {
+            final Integer from = ids.get(rel.getType());
+            final Integer to = ids.get(rel.getTypeUsed());
+            if (from != null && to != null && !from.equals(to)) {
+                edgeKeys.add(((long) from << 32) | to);
+            }
+        });
+        final List<int[]> edges = new ArrayList<>(edgeKeys.size());
+        final List<SortedSet<Integer>> adjacency = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            adjacency.add(new TreeSet<>());
+        }
+        edgeKeys.forEach( key -> {
+            final int from = (int) (key >>> 32);
+            final int to = (int) (long) key;
+            edges.add(new int[]{from, to});
+            adjacency.get(from).add(to);
+            adjacency.get(to).add(from);
+        });
+        final int[][] neighbours = adjacency.stream()
+                .map( set -> set.stream().mapToInt(Integer::intValue).toArray() )
+                .toArray(int[][]::new);
+
+        final double[][] positions = new BarnesHutLayout(neighbours, clusters, iterations, theta, parallelism).compute();
+
+        final List<Object[]> nodes = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            nodes.add(new Object[]{names[i], clusters[i], round(positions[0][i]), round(positions[1][i]), neighbours[i].length});
+        }
+
+        final Map<String, Object> graph = new LinkedHashMap<>();
+        graph.put("domains", domains);
+        graph.put("nodes", nodes);
+        graph.put("edges", edges);
+        graph.put("tiles", tiles(positions, neighbours));
+
+        try {
+            json = new ObjectMapper().writeValueAsString(graph);
+            final String template = Resources.toString(Resources.getResource(TEMPLATE), StandardCharsets.UTF_8);
+            // Keep the data from closing the script element it is embedded in
+            html = template.replace(DATA_PLACEHOLDER, json.replace("</", "<\\/"));
+        } catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Group the nodes into tiles for every zoom level, keeping the most connected nodes of each tile
+     * @return tile key 'z/x/y' -> node ids
+     */
+    private Map<String, List<Integer>> tiles(double[][] positions, int[][] neighbours) {
+        final int n = neighbours.length;
+        int maxLevel = 0;
+        while (maxLevel < MAX_TILE_LEVEL && (double) n / (1L << (2 * maxLevel)) > tileCapacity) {
+            maxLevel++;
+        }
+
+        // Most connected first, so truncating a tile keeps its hubs
+        final Integer[] byDegree = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            byDegree[i] = i;
+        }
+        Arrays.sort(byDegree, (a, b) -> neighbours[b].length != neighbours[a].length
+                ? Integer.compare(neighbours[b].length, neighbours[a].length)
+                : Integer.compare(a, b));
+
+        final Map<String, List<Integer>> tiles = new TreeMap<>();
+        for (int level = 0; level <= maxLevel; level++) {
+            final int grid = 1 << level;
+            for (Integer node : byDegree) {
+                final int tileX = Math.min(grid - 1, (int) (positions[0][node] * grid));
+                final int tileY = Math.min(grid - 1, (int) (positions[1][node] * grid));
+                final List<Integer> tile = tiles.computeIfAbsent(level + "/" + tileX + "/" + tileY, key -> new ArrayList<>());
+                if (level == maxLevel || tile.size() < tileCapacity) {
+                    tile.add(node);
+                }
+            }
+        }
+        return tiles;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1e5) / 1e5;
+    }
+
+    /**
+     * Retrieve the rendered page
+     */
+    @Override
+    public String getLog() {
+        return html;
+    }
+
+    @Override
+    public String getLogName() {
+        return HTML_FILE_NAME;
+    }
+
+    /**
+     * The page embeds the graph data, which is also written on its own for other tools
+     */
+    @Override
+    public Map<String, String> getFiles() {
+        final Map<String, String> files = new LinkedHashMap<>();
+        files.put(HTML_FILE_NAME, html);
+        files.put(JSON_FILE_NAME, json);
+        return files;
+    }
+}
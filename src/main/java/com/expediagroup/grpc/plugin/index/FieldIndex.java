@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Reader of the field index written by FieldIndexProtoSchemaExporter.
+ *
+ * The file is plain UTF-8 text so it can be memory-mapped and searched in place:
+ * <pre>
+ * #field-index v1 &lt;entity count&gt; &lt;key count&gt;
+ * &lt;entity name&gt;                       one line per entity, the line number is the entity id
+ * &lt;kind&gt;:&lt;token&gt;\t&lt;id&gt;,&lt;id&gt;,...       one line per key, sorted, ids ascending
+ * </pre>
+ * Keys are binary searched by byte offset, so a lookup reads O(log keys) lines and never loads the postings
+ * it does not return.
+ */
+public class FieldIndex {
+
+    public static final String FIELD_NAME = "f";
+    public static final String FIELD_TYPE = "t";
+    public static final String ENUM_VALUE = "e";
+
+    protected static final String HEADER = "#field-index v1";
+    private static final String TOKEN_SEPARATORS = "[^A-Za-z0-9]+|(?<=[a-z0-9])(?=[A-Z])|(?<=[A-Z])(?=[A-Z][a-z])";
+
+    private final ByteBuffer buffer;
+    private final String[] entities;
+    private final int keysStart;
+
+    FieldIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        final String header = readLine(0);
+        final String[] parts = header.split(" ");
+        if (!header.startsWith(HEADER) || parts.length != 4) {
+            throw new IllegalArgumentException("Not a field index: " + header);
+        }
+        int position = nextLine(0);
+        entities = new String[Integer.parseInt(parts[2])];
+        for (int id = 0; id < entities.length; id++) {
+            entities[id] = readLine(position);
+            position = nextLine(position);
+        }
+        keysStart = position;
+    }
+
+    /**
+     * Memory-map an index file
+     * @param path
+     * @return the index, reading from the mapped file
+     */
+    public static FieldIndex open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new FieldIndex(buffer);
+        }
+    }
+
+    /**
+     * Read an index held in memory
+     * @param content - Content of an index file
+     * @return the index
+     */
+    public static FieldIndex of(String content) {
+        return new FieldIndex(ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Split an identifier on separators and case changes: 'user_id', 'userId' and 'UserID' all give 'user', 'id'
+     * @param identifier
+     * @return the lower case tokens, in order
+     */
+    public static List<String> tokens(String identifier) {
+        final List<String> tokens = new ArrayList<>();
+        for (String token : identifier.split(TOKEN_SEPARATORS)) {
+            if (!token.isEmpty()) {
+                tokens.add(token.toLowerCase(Locale.ROOT));
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Keys of an identifier: its whole lower case form, followed by its tokens when it has more than one
+     * @param identifier
+     * @return the distinct keys
+     */
+    public static Set<String> keys(String identifier) {
+        final Set<String> keys = new LinkedHashSet<>();
+        keys.add(identifier.toLowerCase(Locale.ROOT));
+        keys.addAll(tokens(identifier));
+        return keys;
+    }
+
+    /**
+     * @return the number of indexed entities
+     */
+    public int size() {
+        return entities.length;
+    }
+
+    /**
+     * Entities having a key equal to the token
+     * @param kind - FIELD_NAME, FIELD_TYPE or ENUM_VALUE
+     * @param token - Whole identifier or token, case insensitive
+     * @return the entity names
+     */
+    public SortedSet<String> lookup(String kind, String token) {
+        final byte[] key = key(kind, token);
+        final SortedSet<String> result = new TreeSet<>();
+        final int line = search(key);
+        if (line < buffer.limit() && compareKey(line, key) == 0) {
+            addPostings(line, result);
+        }
+        return result;
+    }
+
+    /**
+     * Entities having a key starting with the prefix
+     * @param kind - FIELD_NAME, FIELD_TYPE or ENUM_VALUE
+     * @param prefix - Start of an identifier or token, case insensitive
+     * @return the entity names
+     */
+    public SortedSet<String> lookupPrefix(String kind, String prefix) {
+        final byte[] key = key(kind, prefix);
+        final SortedSet<String> result = new TreeSet<>();
+        for (int line = search(key); line < buffer.limit() && startsWith(line, key); line = nextLine(line)) {
+            addPostings(line, result);
+        }
+        return result;
+    }
+
+    private static byte[] key(String kind, String token) {
+        return (kind + ":" + token.toLowerCase(Locale.ROOT)).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Binary search of the first key line not lower than the key
+     * @return the offset of the line, or the end of the buffer
+     */
+    private int search(byte[] key) {
+        // Lines starting before 'low' are lower than the key, lines starting at or after 'high' are not
+        int low = keysStart;
+        int high = buffer.limit();
+        while (low < high) {
+            final int middle = lineStart(low + (high - low) / 2, low);
+            if (compareKey(middle, key) < 0) {
+                low = nextLine(middle);
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int lineStart(int position, int lowest) {
+        while (position > lowest && buffer.get(position - 1) != '\n') {
+            position--;
+        }
+        return position;
+    }
+
+    private int nextLine(int position) {
+        while (position < buffer.limit() && buffer.get(position) != '\n') {
+            position++;
+        }
+        return Math.min(position + 1, buffer.limit());
+    }
+
+    private int compareKey(int line, byte[] key) {
+        for (int i = 0; ; i++) {
+            final int position = line + i;
+            final boolean lineEnded = position >= buffer.limit() || buffer.get(position) == '\t' || buffer.get(position) == '\n';
+            if (lineEnded || i == key.length) {
+                return (lineEnded ? 0 : 1) - (i == key.length ? 0 : 1);
+            }
+            final int difference = (buffer.get(position) & 0xff) - (key[i] & 0xff);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+    }
+
+    private boolean startsWith(int line, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            final int position = line + i;
+            if (position >= buffer.limit() || buffer.get(position) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addPostings(int line, Set<String> result) {
+        final String postings = readLine(line);
+        final int tab = postings.indexOf('\t');
+        if (tab < 0) {
+            return;
+        }
+        for (String id : postings.substring(tab + 1).split(",")) {
+            result.add(entities[Integer.parseInt(id)]);
+        }
+    }
+
+    private String readLine(int position) {
+        final int end = nextLine(position);
+        final int length = end - position - (end > position && buffer.get(end - 1) == '\n' ? 1 : 0);
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(position + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the entity names, by id
+     */
+    public List<String> getEntities() {
+        return Collections.unmodifiableList(Arrays.asList(entities));
+    }
+}
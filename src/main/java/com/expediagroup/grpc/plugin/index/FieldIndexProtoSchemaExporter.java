@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.index;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.expediagroup.grpc.plugin.ProtoSchemaExporter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Exports an inverted index of the field names, field types and enum values of the ProtoSchema view model,
+ * so schema search tools can look them up without a database. See FieldIndex for the file format and lookups.
+ *
+ * Field names and types cover both the primitive attributes and the fields using another message or enum.
+ */
+public class FieldIndexProtoSchemaExporter implements ProtoSchemaExporter {
+
+    protected static final String INDEX_FILE_NAME = "field-index.txt";
+    protected static final String LOG_FILE_NAME = "field-index-stats.json";
+    private static final String PRIMITIVE_TYPE_PREFIX = "TYPE_";
+
+    // Keys are compared as UTF-8 bytes by the reader
+    private static final Comparator<String> KEY_ORDER = Comparator.comparing(
+            (String key) -> key.getBytes(StandardCharsets.UTF_8), UnsignedBytes.lexicographicalComparator());
+
+    private String index = "";
+    private String log = "";
+
+    /**
+     * Build the postings of every key and write them sorted
+     * @param schema
+     */
+    @Override
+    public void export(ProtoSchema schema) {
+        final String[] names = new TreeSet<>(schema.getEntities().keySet()).toArray(new String[0]);
+        final Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            ids.put(names[i], i);
+        }
+
+        final SortedMap<String, SortedSet<Integer>> postings = new TreeMap<>(KEY_ORDER);
+        for (ProtoSchema.Entity entity : schema.getEntities().values()) {
+            final int id = ids.get(entity.getName());
+            entity.getAttributes().forEach( (field, type) -> {
+                addKeys(postings, FieldIndex.FIELD_NAME, field, id);
+                addKeys(postings, FieldIndex.FIELD_TYPE, primitiveType(type), id);
+            });
+            entity.getEnumValues().forEach( value -> addKeys(postings, FieldIndex.ENUM_VALUE, value, id) );
+        }
+        for (ProtoSchema.RelationShip rel : schema.getRelationships()) {
+            final Integer id = ids.get(rel.getType());
+            if (id != null) {
+                rel.getFieldNames().forEach( field -> addKeys(postings, FieldIndex.FIELD_NAME, field, id) );
+                addKeys(postings, FieldIndex.FIELD_TYPE, rel.getTypeUsed(), id);
+                addKeys(postings, FieldIndex.FIELD_TYPE, simpleName(rel.getTypeUsed()), id);
+            }
+        }
+
+        final StringBuilder content = new StringBuilder()
+                .append(FieldIndex.HEADER).append(' ').append(names.length).append(' ').append(postings.size()).append('\n');
+        for (String name : names) {
+            content.append(name).append('\n');
+        }
+        long postingCount = 0;
+        for (Map.Entry<String, SortedSet<Integer>> key : postings.entrySet()) {
+            content.append(key.getKey()).append('\t');
+            String separator = "";
+            for (int id : key.getValue()) {
+                content.append(separator).append(id);
+                separator = ",";
+            }
+            content.append('\n');
+            postingCount += key.getValue().size();
+        }
+        index = content.toString();
+
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entities", names.length);
+        stats.put("keys", postings.size());
+        stats.put("postings", postingCount);
+        stats.put("bytes", index.getBytes(StandardCharsets.UTF_8).length);
+        try {
+            log = new ObjectMapper().writeValueAsString(stats);
+        } catch(Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void addKeys(Map<String, SortedSet<Integer>> postings, String kind, String identifier, int id) {
+        FieldIndex.keys(identifier)
+                .forEach( token -> postings.computeIfAbsent(kind + ":" + token, key -> new TreeSet<>()).add(id) );
+    }
+
+    /**
+     * 'TYPE_STRING' -> 'STRING'
+     */
+    private static String primitiveType(String type) {
+        return type.startsWith(PRIMITIVE_TYPE_PREFIX) ? type.substring(PRIMITIVE_TYPE_PREFIX.length()) : type;
+    }
+
+    /**
+     * 'hello.Request' -> 'Request'
+     */
+    private static String simpleName(String type) {
+        return type.substring(type.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Retrieve the index statistics
+     */
+    @Override
+    public String getLog() {
+        return log;
+    }
+
+    @Override
+    public String getLogName() {
+        return LOG_FILE_NAME;
+    }
+
+    /**
+     * The index file itself and its statistics
+     */
+    @Override
+    public Map<String, String> getFiles() {
+        final Map<String, String> files = new LinkedHashMap<>();
+        files.put(INDEX_FILE_NAME, index);
+        files.put(LOG_FILE_NAME, log);
+        return files;
+    }
+}
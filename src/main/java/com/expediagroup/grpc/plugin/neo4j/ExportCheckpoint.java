@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.neo4j;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Journal of the nodes and relationships already written to Neo4j, so a failed export of the same schema
+ * resumes where it stopped instead of starting over.
+ *
+ * The journal is a local file named after a hash of the schema content. It starts with a record of the graph
+ * being ready, either cleaned ('S') or a new generation allocated ('G', generation) when generations are used,
+ * then each committed request appends one line per node ('N', full name, node reference) or relationship
+ * ('R', type, field name, type used). A journal without the first record, as left by an export that failed
+ * before the graph was ready, is not resumed.
+ * Lines are appended once Neo4j acknowledged the request, so the last request before a crash may be in the graph
+ * without being journalled: the exporter merges instead of creating when it resumes. It is deleted once the export
+ * completes.
+ */
+public class ExportCheckpoint implements Closeable {
+
+    private final static Logger LOGGER = LogManager.getLogger(ExportCheckpoint.class);
+
+    public static final String CHECKPOINT = "checkpoint";
+    public static final String CHECKPOINT_DIR = "checkpoint_dir";
+    protected static final String DEFAULT_CHECKPOINT_DIR = ".proto-visual-exporter";
+
+    private static final String JOURNAL_PREFIX = "neo4j-";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String SEPARATOR = "\t";
+
+    private final Path journal;
+    private final Map<String, String> nodes = new HashMap<>();
+    private final Set<String> relationships = new HashSet<>();
+    private boolean resumed;
+    private boolean started;
+    private Long generation;
+    private BufferedWriter writer;
+
+    private ExportCheckpoint(Path journal) throws IOException {
+        this.journal = journal;
+        if (Files.exists(journal)) {
+            load();
+        }
+        this.resumed = started;
+        if (resumed) {
+            writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } else {
+            reset();
+        }
+    }
+
+    private void reset() throws IOException {
+        close();
+        nodes.clear();
+        relationships.clear();
+        generation = null;
+        resumed = false;
+        started = false;
+        writer = Files.newBufferedWriter(journal, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Forget what the journal holds, when the export starts over instead of resuming it (e.g. in a new generation)
+     */
+    public synchronized void restart() {
+        try {
+            reset();
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Open the journal of the schema, resuming it if a previous export of the same schema did not complete.
+     * Journals of other schemas are stale since the graph will be cleaned, so they are removed.
+     * @param directory - Where journals are kept
+     * @param schema - Schema being exported
+     * @return
+     */
+    public static ExportCheckpoint open(Path directory, ProtoSchema schema) {
+        try {
+            Files.createDirectories(directory);
+            final Path journal = directory.resolve(JOURNAL_PREFIX + schemaHash(schema) + JOURNAL_SUFFIX);
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+                for (Path path : stale) {
+                    if (!path.equals(journal)) {
+                        Files.delete(path);
+                    }
+                }
+            }
+            final ExportCheckpoint checkpoint = new ExportCheckpoint(journal);
+            if (checkpoint.resumed) {
+                LOGGER.info("Resuming export from {}: {} nodes and {} relationships already written.",
+                        journal, checkpoint.nodes.size(), checkpoint.relationships.size());
+            }
+            return checkpoint;
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Hash of everything that ends up in the graph
+     * @param schema
+     * @return
+     */
+    protected static String schemaHash(ProtoSchema schema) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        new TreeMap<>(schema.getEntities()).values().forEach( entity -> {
+            putString(hasher, entity.getName());
+            putString(hasher, entity.getDomain());
+            new TreeMap<>(entity.getAttributes()).forEach( (k, v) -> putString(putString(hasher, k), v) );
+            hasher.putByte((byte) 1);
+            new TreeMap<>(entity.getProperties()).forEach( (k, v) -> putString(putString(hasher, k), v) );
+            hasher.putByte((byte) 2);
+        });
+        final Set<String> relationships = new TreeSet<>();
+        schema.getRelationships().forEach( rel -> relationships.add(key(rel)) );
+        relationships.forEach( rel -> putString(hasher, rel) );
+        return hasher.hash().toString();
+    }
+
+    private static Hasher putString(Hasher hasher, String value) {
+        return hasher.putString(value, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    private static String key(ProtoSchema.RelationShip rel) {
+        return rel.getType() + SEPARATOR + rel.getFieldName() + SEPARATOR + rel.getTypeUsed();
+    }
+
+    private void load() throws IOException {
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            final String[] parts = line.split(SEPARATOR, -1);
+            // A line cut short by a crash is simply ignored
+            if (parts.length == 1 && parts[0].equals("S")) {
+                started = true;
+            } else if (parts.length == 2 && parts[0].equals("G") && !parts[1].isEmpty()) {
+                generation = Long.valueOf(parts[1]);
+                started = true;
+            } else if (parts.length == 3 && parts[0].equals("N")) {
+                nodes.put(parts[1], parts[2]);
+            } else if (parts.length == 4 && parts[0].equals("R")) {
+                relationships.add(parts[1] + SEPARATOR + parts[2] + SEPARATOR + parts[3]);
+            }
+        }
+    }
+
+    /**
+     * @return true if a previous export of the same schema was interrupted once the graph was ready
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @return full name -> node reference of the nodes already written
+     */
+    public Map<String, String> getNodes() {
+        return Collections.unmodifiableMap(nodes);
+    }
+
+    /**
+     * @return the generation recorded by the interrupted export, or null
+     */
+    public Long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Record the generation the export writes to
+     * @param generation
+     */
+    public synchronized void generationAllocated(long generation) {
+        this.generation = generation;
+        started = true;
+        append("G" + SEPARATOR + generation + "\n");
+    }
+
+    /**
+     * Record that the graph was cleaned, so the export can be resumed from now on
+     */
+    public synchronized void cleaned() {
+        started = true;
+        append("S\n");
+    }
+
+    public boolean isCommitted(ProtoSchema.RelationShip rel) {
+        return relationships.contains(key(rel));
+    }
+
+    /**
+     * Record nodes written by a successful request
+     * @param names - Full names of the entities
+     * @param refs - Node references, in the same order
+     */
+    public synchronized void nodesCommitted(List<String> names, List<String> refs) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < names.size(); i++) {
+            lines.append("N").append(SEPARATOR).append(names.get(i)).append(SEPARATOR).append(refs.get(i)).append('\n');
+        }
+        append(lines);
+    }
+
+    /**
+     * Record relationships written by a successful request
+     * @param rels
+     */
+    public synchronized void relationshipsCommitted(Collection<ProtoSchema.RelationShip> rels) {
+        final StringBuilder lines = new StringBuilder();
+        rels.forEach( rel -> lines.append("R").append(SEPARATOR).append(key(rel)).append('\n') );
+        append(lines);
+    }
+
+    private void append(CharSequence lines) {
+        try {
+            writer.append(lines);
+            writer.flush();
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * The export completed, the journal is not needed anymore
+     */
+    public synchronized void complete() {
+        close();
+        try {
+            Files.deleteIfExists(journal);
+        } catch(IOException ex) {
+            LOGGER.warn("Unable to delete the checkpoint journal {}", journal, ex);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch(IOException ex) {
+                LOGGER.warn("Unable to close the checkpoint journal {}", journal, ex);
+            }
+            writer = null;
+        }
+    }
+}
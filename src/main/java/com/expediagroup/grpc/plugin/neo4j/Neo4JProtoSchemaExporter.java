@@ -15,28 +15,74 @@
  */
 package com.expediagroup.grpc.plugin.neo4j;
 
+import com.expediagroup.grpc.plugin.ExporterConfig;
 import com.expediagroup.grpc.plugin.ProtoSchema;
-import com.expediagroup.grpc.plugin.ProtoSchemaExporter;
+import com.expediagroup.grpc.plugin.ProtoSchemaSink;
+import com.expediagroup.grpc.plugin.StreamingProtoSchemaExporter;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
 
 import static org.springframework.util.StringUtils.hasText;
 
 /**
  * Exports the ProtoSchema view model to Neo4j.
  */
-public class Neo4JProtoSchemaExporter implements ProtoSchemaExporter {
+public class Neo4JProtoSchemaExporter implements StreamingProtoSchemaExporter {
+
+    private static final Logger LOGGER = LogManager.getLogger(Neo4JProtoSchemaExporter.class);
 
     private Map<String, String> nodes = new ConcurrentHashMap<>();
     protected static final String LOG_FILE_NAME = "neo4j-query-log.txt";
     protected static final String FULL_NAME_ATTRIBUTE_KEY = "_full_name_";
     protected static final String DOMAIN_ATTRIBUTE_KEY = "_domain_";
+    protected static final String GENERATION_ATTRIBUTE_KEY = "_generation_";
     protected static final String RELATIONSHIP_FIELD_KEY = "field";
+    protected static final String RELATIONSHIP_FIELDS_KEY = "fields";
+    protected static final String RELATIONSHIP_MULTIPLICITY_KEY = "_multiplicity_";
+    protected static final String RELATIONSHIP_TYPE = "uses";
+    protected static final String WRITER_THREAD_NAME = "neo4j-writer";
+
+    public static final String URL_OPTION = "neo4j_url";
+    public static final String USERNAME_OPTION = "neo4j_username";
+    public static final String PASSWORD_OPTION = "neo4j_password";
+    public static final String GENERATIONS_OPTION = "generations";
+    public static final String RECLAIM_BATCH_SIZE_OPTION = "reclaim_batch_size";
 
     private Neo4jClient neo4jClient;
+    private String url;
+    private String username;
+    private String password;
+    private int batchSize = 1;
+    private int parallelism = ExporterConfig.empty().getParallelism();
+    private Path checkpointDir;
+    private ExportCheckpoint checkpoint;
+    private boolean generations;
+    private int reclaimBatchSize = 10000;
+    private Long generation;
+    private boolean resumed;
 
     /**
      * Constructor used to test by injecting a mock ne4ojclient
@@ -54,20 +100,140 @@ public class Neo4JProtoSchemaExporter implements ProtoSchemaExporter {
      * @param password
      */
     public Neo4JProtoSchemaExporter(String url, String username, String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
         neo4jClient = new Neo4jClient(url, username, password);
     }
 
+    /**
+     * Apply the batch size and parallelism, and rebuild the Neo4j client with the transport settings
+     * unless it was injected. The connections of the client it replaces are released.
+     * @param config
+     */
+    @Override
+    public void configure(ExporterConfig config) {
+        batchSize = config.getBatchSize();
+        parallelism = config.getParallelism();
+        checkpointDir = config.getBoolean(ExportCheckpoint.CHECKPOINT, false)
+                ? Paths.get(config.getString(ExportCheckpoint.CHECKPOINT_DIR, ExportCheckpoint.DEFAULT_CHECKPOINT_DIR))
+                : null;
+        generations = config.getBoolean(GENERATIONS_OPTION, false);
+        reclaimBatchSize = Math.max(1, config.getInt(RECLAIM_BATCH_SIZE_OPTION, reclaimBatchSize));
+        if (url != null) {
+            try {
+                neo4jClient.close();
+            } catch(IOException ex) {
+                LOGGER.warn("Unable to release the connections of the previous Neo4j client.", ex);
+            }
+            neo4jClient = new Neo4jClient(
+                    config.getString(URL_OPTION, url),
+                    config.getString(USERNAME_OPTION, username),
+                    config.getString(PASSWORD_OPTION, password),
+                    config);
+        }
+    }
+
     /**
      * Implement the export method to convert ProtoSchema to Neo4j Cypher queries
      * @param schema
      */
     @Override
     public void export(ProtoSchema schema) {
-        neo4jClient.clean();
-        schema.getEntities().values().parallelStream()
-                .forEach( entity -> exportEntity(entity) );
-        schema.getRelationships().parallelStream()
-                .forEach( relationShip -> exportRelationship(relationShip) );
+        checkpoint = checkpointDir != null ? ExportCheckpoint.open(checkpointDir, schema) : null;
+        try {
+            if (checkpoint != null && checkpoint.isResumed() && generations == (checkpoint.getGeneration() != null)) {
+                // Same schema as the interrupted export: keep the graph and skip what was already written
+                nodes.putAll(checkpoint.getNodes());
+                generation = checkpoint.getGeneration();
+                resumed = true;
+            } else {
+                if (checkpoint != null) {
+                    // What was journalled belongs to another graph than the one about to be written
+                    checkpoint.restart();
+                }
+                startGeneration();
+            }
+            final List<ProtoSchema.Entity> entities = schema.getEntities().values().stream()
+                    .filter( entity -> !nodes.containsKey(entity.getName()) )
+                    .collect(Collectors.toList());
+            inParallel(() -> exportEntities(entities));
+
+            final List<ProtoSchema.RelationShip> relationShips = schema.getRelationships().stream()
+                    .filter( rel -> checkpoint == null || !checkpoint.isCommitted(rel) )
+                    .collect(Collectors.toList());
+            inParallel(() -> exportRelationships(relationShips));
+
+            completeGeneration();
+            if (checkpoint != null) {
+                checkpoint.complete();
+            }
+        } finally {
+            resumed = false;
+            if (checkpoint != null) {
+                checkpoint.close();
+                checkpoint = null;
+            }
+        }
+    }
+
+    /**
+     * Clean the graph, or when using generations write to a new staging generation next to the current one
+     */
+    private void startGeneration() {
+        nodes.clear();
+        if (generations) {
+            generation = neo4jClient.nextGeneration();
+            if (checkpoint != null) {
+                checkpoint.generationAllocated(generation);
+            }
+        } else if (checkpoint != null) {
+            // Resuming on top of a graph that was not cleaned would keep the types removed since
+            generation = null;
+            neo4jClient.cleanOrFail();
+            checkpoint.cleaned();
+        } else {
+            generation = null;
+            neo4jClient.clean();
+        }
+    }
+
+    /**
+     * Make the staging generation the current one, then delete the previous generations a batch at a time
+     * so readers are never slowed down by a single large delete. Later generations, staged by exports still
+     * running, are left to the export writing them.
+     */
+    private void completeGeneration() {
+        if (generation == null) {
+            return;
+        }
+        if (!neo4jClient.switchGeneration(generation)) {
+            // A later export completed first, its reclaim or the next one deletes this generation
+            LOGGER.warn("Generation {} is older than the current one, it is not made current.", generation);
+            generation = null;
+            return;
+        }
+        int reclaimed = 0;
+        int deleted;
+        do {
+            deleted = neo4jClient.deleteOlderGenerations(GENERATION_ATTRIBUTE_KEY, generation, reclaimBatchSize);
+            reclaimed += deleted;
+        } while (deleted > 0);
+        LOGGER.info("Generation {} is current, {} nodes of previous generations deleted.", generation, reclaimed);
+        generation = null;
+    }
+
+    /**
+     * Start a streaming export, the graph is cleaned right away
+     * @return
+     */
+    @Override
+    public ProtoSchemaSink openSink() {
+        if (checkpointDir != null) {
+            LOGGER.warn("Checkpoints need the complete schema up front, they are not used when streaming.");
+        }
+        startGeneration();
+        return new StreamingSink();
     }
 
     /**
@@ -86,17 +252,96 @@ public class Neo4JProtoSchemaExporter implements ProtoSchemaExporter {
         return LOG_FILE_NAME;
     }
 
+    /**
+     * Run a parallel stream with the configured number of writers
+     * @param task
+     */
+    private void inParallel(Runnable task) {
+        final ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.submit(task).get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch(ExecutionException ex) {
+            throw ex.getCause() instanceof RuntimeException
+                    ? (RuntimeException) ex.getCause()
+                    : new RuntimeException(ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Export the entities one by one, or in batches of entities sharing the same node name
+     * @param entities
+     */
+    private void exportEntities(Collection<ProtoSchema.Entity> entities) {
+        if (batchSize <= 1) {
+            entities.parallelStream()
+                    .forEach( entity -> exportEntity(entity) );
+            return;
+        }
+        final List<List<ProtoSchema.Entity>> batches = new ArrayList<>();
+        entities.stream()
+                .collect(Collectors.groupingBy(Neo4JProtoSchemaExporter::nodeName))
+                .values()
+                .forEach( group -> batches.addAll(Lists.partition(group, batchSize)) );
+        batches.parallelStream()
+                .forEach( batch -> exportEntityBatch(batch) );
+    }
+
+    /**
+     * Export the relationships one by one, or in batches
+     * @param relationShips
+     */
+    private void exportRelationships(Collection<ProtoSchema.RelationShip> relationShips) {
+        if (batchSize <= 1) {
+            relationShips.parallelStream()
+                    .forEach( relationShip -> exportRelationship(relationShip) );
+            return;
+        }
+        final List<ProtoSchema.RelationShip> resolved = relationShips.stream()
+                .filter( rel -> toRelationship(rel) != null )
+                .collect(Collectors.toList());
+        Lists.partition(resolved, batchSize).parallelStream()
+                .forEach( batch -> exportRelationshipBatch(batch) );
+    }
+
     /**
      * Export a ProtoSchema entity
      * @param entity
      */
     private void exportEntity(ProtoSchema.Entity entity) {
-        final Map<String, String> attributes = new HashMap<>();
-        attributes.put(FULL_NAME_ATTRIBUTE_KEY, entity.getName());
-        attributes.put(DOMAIN_ATTRIBUTE_KEY, entity.getDomain());
-        attributes.putAll(entity.getAttributes());
-        String ref = neo4jClient.createNode(entity.getDomain().replace(".", "_"), attributes);
+        if (resumed) {
+            exportEntityBatch(Collections.singletonList(entity));
+            return;
+        }
+        String ref = neo4jClient.createNode(nodeName(entity), toAttributes(entity));
         nodes.put(entity.getName(), ref);
+        if (checkpoint != null) {
+            checkpoint.nodesCommitted(Collections.singletonList(entity.getName()), Collections.singletonList(ref));
+        }
+    }
+
+    /**
+     * Export ProtoSchema entities sharing the same node name in a single request. When resuming, the request
+     * of a node may have been written without being journalled, so nodes are merged on their full name.
+     * @param batch
+     */
+    private void exportEntityBatch(List<ProtoSchema.Entity> batch) {
+        final List<Map<String, Object>> attributes = batch.stream()
+                .map( entity -> toAttributes(entity) )
+                .collect(Collectors.toList());
+        final List<String> refs = resumed
+                ? neo4jClient.mergeNodes(nodeName(batch.get(0)), nodeKeys(), attributes)
+                : neo4jClient.createNodes(nodeName(batch.get(0)), attributes);
+        for (int i = 0; i < refs.size(); i++) {
+            nodes.put(batch.get(i).getName(), refs.get(i));
+        }
+        if (checkpoint != null) {
+            checkpoint.nodesCommitted(batch.stream().map(ProtoSchema.Entity::getName).collect(Collectors.toList()), refs);
+        }
     }
 
     /**
@@ -104,11 +349,85 @@ public class Neo4JProtoSchemaExporter implements ProtoSchemaExporter {
      * @param rel
      */
     private void exportRelationship(ProtoSchema.RelationShip rel) {
+        final Neo4jClient.Relationship relationship = toRelationship(rel);
+        if (relationship != null && resumed) {
+            exportRelationshipBatch(Collections.singletonList(rel));
+        } else if (relationship != null) {
+            neo4jClient.createRelationShip(nodes.get(rel.getType()), nodes.get(rel.getTypeUsed()), RELATIONSHIP_TYPE,
+                    relationshipAttributes(rel));
+            if (checkpoint != null) {
+                checkpoint.relationshipsCommitted(Collections.singletonList(rel));
+            }
+        }
+    }
+
+    /**
+     * Export ProtoSchema relationships between exported nodes in a single request, merged on their field
+     * when resuming
+     * @param batch
+     */
+    private void exportRelationshipBatch(List<ProtoSchema.RelationShip> batch) {
+        final List<Neo4jClient.Relationship> relationships = batch.stream()
+                .map( rel -> toRelationship(rel) )
+                .collect(Collectors.toList());
+        if (resumed) {
+            neo4jClient.mergeRelationShips(RELATIONSHIP_TYPE, Collections.singletonList(RELATIONSHIP_FIELD_KEY), relationships);
+        } else {
+            neo4jClient.createRelationShips(RELATIONSHIP_TYPE, relationships);
+        }
+        if (checkpoint != null) {
+            checkpoint.relationshipsCommitted(batch);
+        }
+    }
+
+    /**
+     * @param rel
+     * @return the relationship between the exported nodes or null if one of them wasn't exported
+     */
+    private Neo4jClient.Relationship toRelationship(ProtoSchema.RelationShip rel) {
         final String from = nodes.get(rel.getType());
         final String to = nodes.get(rel.getTypeUsed());
         if (hasText(from) && hasText(to)) {
-            neo4jClient.createRelationShip(from, to, "uses", withAttributes(RELATIONSHIP_FIELD_KEY, rel.getFieldName()));
+            return new Neo4jClient.Relationship(from, to, relationshipAttributes(rel));
         }
+        return null;
+    }
+
+    /**
+     * @return the attributes identifying a node of the export
+     */
+    private List<String> nodeKeys() {
+        return generation != null
+                ? Arrays.asList(FULL_NAME_ATTRIBUTE_KEY, GENERATION_ATTRIBUTE_KEY)
+                : Collections.singletonList(FULL_NAME_ATTRIBUTE_KEY);
+    }
+
+    private static String nodeName(ProtoSchema.Entity entity) {
+        return entity.getDomain().replace(".", "_");
+    }
+
+    private Map<String, Object> toAttributes(ProtoSchema.Entity entity) {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put(FULL_NAME_ATTRIBUTE_KEY, entity.getName());
+        attributes.put(DOMAIN_ATTRIBUTE_KEY, entity.getDomain());
+        if (generation != null) {
+            attributes.put(GENERATION_ATTRIBUTE_KEY, generation);
+        }
+        attributes.putAll(entity.getAttributes());
+        attributes.putAll(entity.getProperties());
+        return attributes;
+    }
+
+    /**
+     * Aggregated relationships also carry the list of the fields they stand for and its size
+     */
+    private static Map<String, Object> relationshipAttributes(ProtoSchema.RelationShip rel) {
+        final Map<String, Object> attributes = new HashMap<>(withAttributes(RELATIONSHIP_FIELD_KEY, rel.getFieldName()));
+        if (rel.getMultiplicity() > 1) {
+            attributes.put(RELATIONSHIP_FIELDS_KEY, rel.getFieldNames());
+            attributes.put(RELATIONSHIP_MULTIPLICITY_KEY, rel.getMultiplicity());
+        }
+        return attributes;
     }
 
     private static Map<String, String> withAttributes(String... kv) {
@@ -121,4 +440,155 @@ public class Neo4JProtoSchemaExporter implements ProtoSchemaExporter {
         return map;
     }
 
+    /**
+     * Writes the entities in batches as they arrive, and each relationship once both of its nodes exist.
+     *
+     * Writes run on 'parallelism' threads with at most two batches per thread in flight, so a slow server
+     * holds the traversal back instead of the whole schema piling up in memory.
+     */
+    private class StreamingSink implements ProtoSchemaSink {
+
+        private final ExecutorService writers = Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setNameFormat(WRITER_THREAD_NAME + "-%d").setDaemon(true).build());
+        private final Semaphore inFlight = new Semaphore(parallelism * 2);
+        private final List<Future<?>> writes = new ArrayList<>();
+        private List<ProtoSchema.Entity> entityBatch = new ArrayList<>();
+
+        // Guarded by 'waiting': relationships parked on a node not written yet, and the ones ready to write
+        private final Map<String, List<ProtoSchema.RelationShip>> waiting = new HashMap<>();
+        private final List<ProtoSchema.RelationShip> ready = new ArrayList<>();
+
+        @Override
+        public void onEntity(ProtoSchema.Entity entity) {
+            entityBatch.add(entity);
+            if (entityBatch.size() >= batchSize) {
+                flushEntities();
+            }
+            flushRelationships(false);
+        }
+
+        @Override
+        public void onRelationship(ProtoSchema.RelationShip relationShip) {
+            synchronized (waiting) {
+                park(relationShip);
+            }
+            flushRelationships(false);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                flushEntities();
+                // Once every node is written, whatever is still parked points to a type that was never registered
+                awaitWrites();
+                flushRelationships(true);
+                awaitWrites();
+                completeGeneration();
+            } finally {
+                writers.shutdown();
+            }
+        }
+
+        @Override
+        public void abort() {
+            writers.shutdownNow();
+        }
+
+        private void park(ProtoSchema.RelationShip rel) {
+            if (!nodes.containsKey(rel.getType())) {
+                waiting.computeIfAbsent(rel.getType(), name -> new ArrayList<>()).add(rel);
+            } else if (!nodes.containsKey(rel.getTypeUsed())) {
+                waiting.computeIfAbsent(rel.getTypeUsed(), name -> new ArrayList<>()).add(rel);
+            } else {
+                ready.add(rel);
+            }
+        }
+
+        private void flushEntities() {
+            if (entityBatch.isEmpty()) {
+                return;
+            }
+            final List<ProtoSchema.Entity> batch = entityBatch;
+            entityBatch = new ArrayList<>();
+            submit(() -> {
+                if (batch.size() == 1) {
+                    exportEntity(batch.get(0));
+                } else {
+                    exportEntityBatch(batch);
+                }
+                synchronized (waiting) {
+                    batch.forEach( entity -> {
+                        final List<ProtoSchema.RelationShip> parked = waiting.remove(entity.getName());
+                        if (parked != null) {
+                            parked.forEach(this::park);
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Submit the full batches of ready relationships, and the last partial one if 'all'
+         * @param all
+         */
+        private void flushRelationships(boolean all) {
+            final List<List<ProtoSchema.RelationShip>> batches = new ArrayList<>();
+            synchronized (waiting) {
+                while (ready.size() >= batchSize || (all && !ready.isEmpty())) {
+                    final List<ProtoSchema.RelationShip> batch = ready.subList(0, Math.min(batchSize, ready.size()));
+                    batches.add(new ArrayList<>(batch));
+                    batch.clear();
+                }
+            }
+            batches.forEach( batch -> submit(() -> exportRelationships(batch)) );
+        }
+
+        private void submit(Runnable write) {
+            try {
+                inFlight.acquire();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            }
+            writes.add(writers.submit(() -> {
+                try {
+                    write.run();
+                } finally {
+                    inFlight.release();
+                }
+            }));
+            if (writes.size() > parallelism * 4) {
+                // Surface failures early and keep the list short
+                awaitWrites(false);
+            }
+        }
+
+        private void awaitWrites() {
+            awaitWrites(true);
+        }
+
+        /**
+         * @param all - wait for every write, or only collect the ones already done
+         */
+        private void awaitWrites(boolean all) {
+            try {
+                final Iterator<Future<?>> iterator = writes.iterator();
+                while (iterator.hasNext()) {
+                    final Future<?> write = iterator.next();
+                    if (all || write.isDone()) {
+                        write.get();
+                        iterator.remove();
+                    }
+                }
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(ex);
+            } catch(ExecutionException ex) {
+                throw ex.getCause() instanceof RuntimeException
+                        ? (RuntimeException) ex.getCause()
+                        : new RuntimeException(ex.getCause());
+            }
+        }
+    }
+
 }
@@ -15,19 +15,24 @@
  */
 package com.expediagroup.grpc.plugin.neo4j;
 
+import com.expediagroup.grpc.plugin.ExporterConfig;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.google.common.annotations.VisibleForTesting;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.auth.AuthSchemeProvider;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.AuthSchemes;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.auth.BasicSchemeFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.logging.log4j.LogManager;
@@ -43,19 +48,30 @@ import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 
 /**
  * Builds the Neo4j queries to create the nodes and relationships.
  */
-public class Neo4jClient {
+public class Neo4jClient implements Closeable {
 
     private static final Logger LOGGER = LogManager.getLogger(Neo4jClient.class);
+    protected static final String GENERATION_POINTER = "_ProtoVisualExporter_";
+    @VisibleForTesting
+    static final String SWITCH_GENERATION = "MERGE (p:" + GENERATION_POINTER + ")"
+            + " WITH p, coalesce(p.current, -1) < {generation} AS advanced"
+            + " SET p.current = CASE WHEN advanced THEN {generation} ELSE p.current END RETURN advanced";
 
     private RestTemplate restTemplate;
+    private CloseableHttpClient httpClient;
     private String url;
     private StringBuffer queryTracker;
+    private final Map<String, String> templates = new ConcurrentHashMap<>();
 
     /**
      * Sets up the Neo4j connection
@@ -64,6 +80,17 @@ public class Neo4jClient {
      * @param password - Neo4j server password
      */
     public Neo4jClient(String url, String username, String password) {
+        this(url, username, password, ExporterConfig.empty());
+    }
+
+    /**
+     * Sets up the Neo4j connection with the transport tuned by the configuration
+     * @param url - Neo4j server
+     * @param username - Neo4j server username
+     * @param password - Neo4j server password
+     * @param config - Pool size, timeouts and compression of the requests
+     */
+    public Neo4jClient(String url, String username, String password, ExporterConfig config) {
         queryTracker = new StringBuffer();
         restTemplate = null;
         final MappingJackson2HttpMessageConverter jackson2Converter = new MappingJackson2HttpMessageConverter();
@@ -78,12 +105,24 @@ public class Neo4jClient {
         restTemplate.setMessageConverters(converters);
 
         final PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-        cm.setMaxTotal(10);
-        cm.setDefaultMaxPerRoute(10);
+        cm.setMaxTotal(config.getPoolSize());
+        cm.setDefaultMaxPerRoute(config.getPoolSizePerRoute());
         final BasicCredentialsProvider bcp = new BasicCredentialsProvider();
 
         bcp.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
-        final HttpClient httpClient = HttpClientBuilder.create()
+        final HttpClientBuilder httpClientBuilder = HttpClientBuilder.create();
+        if (config.isGzip()) {
+            // Must run before the content headers are computed out of the entity
+            httpClientBuilder.addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+                if (request instanceof HttpEntityEnclosingRequest) {
+                    final HttpEntityEnclosingRequest entityRequest = (HttpEntityEnclosingRequest) request;
+                    if (entityRequest.getEntity() != null) {
+                        entityRequest.setEntity(new GzipCompressingEntity(entityRequest.getEntity()));
+                    }
+                }
+            });
+        }
+        httpClient = httpClientBuilder
                 .setConnectionManager(cm)
                 .setDefaultCredentialsProvider(bcp)
                 .setDefaultAuthSchemeRegistry(
@@ -93,39 +132,87 @@ public class Neo4jClient {
                 )
                 .build();
         final HttpComponentsClientHttpRequestFactory factory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        factory.setConnectTimeout(config.getConnectTimeoutMs());
+        factory.setReadTimeout(config.getReadTimeoutMs());
         restTemplate.setRequestFactory(factory);
 
         this.url = url;
     }
 
+    /**
+     * Release the pooled connections, the client can't be used afterwards
+     */
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
     public void clean() {
         try {
-            execute("MATCH (n) OPTIONAL MATCH (n)-[r]-() DELETE n, r");
-            queryTracker = new StringBuffer();
+            cleanOrFail();
         }catch(Exception ex) {
             LOGGER.error("Failed to clean neo4j", ex);
         }
     }
 
+    /**
+     * Same as clean, except a failure is thrown instead of logged
+     */
+    public void cleanOrFail() {
+        execute("MATCH (n) OPTIONAL MATCH (n)-[r]-() DELETE n, r");
+        queryTracker = new StringBuffer();
+    }
+
+    /**
+     * Reserve a new generation number, generations are kept on a single pointer node
+     * @return the new generation, higher than every generation reserved before
+     */
+    public long nextGeneration() {
+        final String cql = "MERGE (p:" + GENERATION_POINTER + ") SET p.next = coalesce(p.next, 0) + 1 RETURN p.next";
+        final DocumentContext ctx = execute(cql);
+        final long generation = ((Number) ctx.read("$.data[0][0]")).longValue();
+        queryTracker.append("==========Generation (").append(generation).append(")==========\n").append(cql).append("\n");
+        return generation;
+    }
+
+    /**
+     * Make a generation the current one, in a single statement so readers switch atomically. The pointer only
+     * moves forward, an export completing after a later one does not bring its older generation back.
+     * @param generation
+     * @return false if a later generation is already current
+     */
+    public boolean switchGeneration(long generation) {
+        final DocumentContext ctx = execute(SWITCH_GENERATION, Collections.singletonMap("generation", generation));
+        queryTracker.append("==========Current generation (").append(generation).append(")==========\n").append(SWITCH_GENERATION).append("\n");
+        return Boolean.TRUE.equals(ctx.read("$.data[0][0]"));
+    }
+
+    /**
+     * Delete at most 'limit' nodes, with their relationships, of the generations before the given one. Nodes
+     * without a generation are deleted too, later generations still being written by other exports are kept.
+     * @param generationKey - Node property holding the generation
+     * @param generation - Oldest generation to keep
+     * @param limit - Maximum number of nodes deleted by this statement
+     * @return the number of deleted nodes
+     */
+    public int deleteOlderGenerations(String generationKey, long generation, int limit) {
+        final Map<String, Object> params = new HashMap<>();
+        params.put("generation", generation);
+        params.put("limit", limit);
+        final DocumentContext ctx = execute(reclaimTemplate(generationKey), params);
+        return ((Number) ctx.read("$.data[0][0]")).intValue();
+    }
+
     /**
      * Create the Neo4j node
      * @param node - name for the node
      * @param attributes - any fields the node may have
      * @return Node reference
      */
-    public String createNode(String node, Map<String, String> attributes) {
+    public String createNode(String node, Map<String, ?> attributes) {
 
-        final StringBuilder cql = new StringBuilder()
-                .append("CREATE (n:")
-                .append(node)
-                .append(" {");
-        attributes.forEach( (k,v) -> {
-            cql.append(" ").append(k).append(" : {").append(k).append("},");
-        });
-        cql.replace(cql.length()-1, cql.length(), " }")
-                .append(") RETURN n");
-
-        DocumentContext ctx = execute(cql.toString(), attributes);
+        final String cql = nodeTemplate(node);
+        DocumentContext ctx = execute(cql, Collections.singletonMap("props", attributes));
         String nodeId = ctx.read("$.data[0][0].self");
 
         synchronized (this) {
@@ -140,6 +227,44 @@ public class Neo4jClient {
         return nodeId;
     }
 
+    /**
+     * Create several Neo4j nodes sharing the same name in a single request
+     * @param node - name for the nodes
+     * @param attributes - fields of each node
+     * @return Node references, in the order of the attributes
+     */
+    public List<String> createNodes(String node, List<? extends Map<String, ?>> attributes) {
+        return writeNodes(nodesTemplate(node), attributes);
+    }
+
+    /**
+     * Create several Neo4j nodes sharing the same name in a single request, reusing the nodes having the same
+     * key attributes instead of creating them again
+     * @param node - name for the nodes
+     * @param keys - attributes identifying a node, every node must have them
+     * @param attributes - fields of each node
+     * @return Node references, in the order of the attributes
+     */
+    public List<String> mergeNodes(String node, List<String> keys, List<? extends Map<String, ?>> attributes) {
+        return writeNodes(mergeNodesTemplate(node, keys), attributes);
+    }
+
+    private List<String> writeNodes(String cql, List<? extends Map<String, ?>> attributes) {
+        final DocumentContext ctx = execute(cql, Collections.singletonMap("rows", attributes));
+        final List<String> nodeIds = ctx.read("$.data[*][0].self");
+
+        synchronized (this) {
+            queryTracker.append("==========Nodes (").append(nodeIds.size()).append(")==========\n").append(cql);
+            for (int i = 0; i < nodeIds.size(); i++) {
+                queryTracker.append("\ndata (").append(nodeIds.get(i)).append("):\n");
+                attributes.get(i).forEach((k, v) -> queryTracker.append(" ").append(k).append(" : {").append(v).append("},"));
+            }
+            queryTracker.append("\n");
+        }
+
+        return nodeIds;
+    }
+
     /**
      * Create a relationship with no fields
      * @param from - Node reference of the 'from' part
@@ -159,7 +284,7 @@ public class Neo4jClient {
      * @param attributes - Extra fields for the relationship
      * @return
      */
-    public String createRelationShip(String from, String to, String type, Map<String, String> attributes) {
+    public String createRelationShip(String from, String to, String type, Map<String, ?> attributes) {
         final RelationshipRequest request = new RelationshipRequest();
         request.to = to;
         request.type = type;
@@ -184,6 +309,113 @@ public class Neo4jClient {
         return ctx.read("$.self");
     }
 
+    /**
+     * Create several relationships of the same type in a single request
+     * @param type - Type of the relationships
+     * @param relationships - Node references and fields of each relationship
+     * @return Relationship references, in the order of the relationships
+     */
+    public List<String> createRelationShips(String type, List<Relationship> relationships) {
+        return writeRelationShips(relationshipsTemplate(type), relationships);
+    }
+
+    /**
+     * Create several relationships of the same type in a single request, reusing the relationships between the
+     * same nodes having the same key fields instead of creating them again
+     * @param type - Type of the relationships
+     * @param keys - Fields identifying a relationship, every relationship must have them
+     * @param relationships - Node references and fields of each relationship
+     * @return Relationship references, in the order of the relationships
+     */
+    public List<String> mergeRelationShips(String type, List<String> keys, List<Relationship> relationships) {
+        return writeRelationShips(mergeRelationshipsTemplate(type, keys), relationships);
+    }
+
+    private List<String> writeRelationShips(String cql, List<Relationship> relationships) {
+        final List<Map<String, Object>> rows = new ArrayList<>(relationships.size());
+        for (Relationship relationship : relationships) {
+            final Map<String, Object> row = new HashMap<>();
+            row.put("from", nodeId(relationship.from));
+            row.put("to", nodeId(relationship.to));
+            row.put("data", relationship.attributes == null ? Collections.emptyMap() : relationship.attributes);
+            rows.add(row);
+        }
+
+        synchronized (this) {
+            queryTracker.append("==========Relationships (").append(rows.size()).append(")==========\n").append(cql);
+            relationships.forEach( relationship -> {
+                queryTracker.append("\nfrom: ").append(relationship.from).append("\nto: ").append(relationship.to);
+                if (relationship.attributes != null && !relationship.attributes.isEmpty()) {
+                    queryTracker.append("\ndata:\n");
+                    relationship.attributes.forEach( (k,v) -> queryTracker.append(" ").append(k).append(" : {").append(v).append("},"));
+                }
+            });
+            queryTracker.append("\n");
+        }
+
+        final DocumentContext ctx = execute(cql, Collections.singletonMap("rows", rows));
+        return ctx.read("$.data[*][0].self");
+    }
+
+    /**
+     * Statements only differ by node name or relationship type, everything else is passed as a map parameter.
+     * Neo4j then plans each statement once and serves the following ones from its query cache.
+     */
+    @VisibleForTesting
+    String nodeTemplate(String node) {
+        return templates.computeIfAbsent("node:" + node,
+                key -> "CREATE (n:`" + node + "`) SET n = {props} RETURN n");
+    }
+
+    @VisibleForTesting
+    String nodesTemplate(String node) {
+        return templates.computeIfAbsent("nodes:" + node,
+                key -> "UNWIND {rows} AS row CREATE (n:`" + node + "`) SET n = row RETURN n");
+    }
+
+    @VisibleForTesting
+    String mergeNodesTemplate(String node, List<String> keys) {
+        return templates.computeIfAbsent("merge-nodes:" + node + ":" + String.join(",", keys),
+                key -> "UNWIND {rows} AS row MERGE (n:`" + node + "` {" + keyPattern(keys, "row") + "}) SET n = row RETURN n");
+    }
+
+    @VisibleForTesting
+    String reclaimTemplate(String generationKey) {
+        return templates.computeIfAbsent("reclaim:" + generationKey,
+                key -> "MATCH (n) WHERE NOT n:" + GENERATION_POINTER + " AND coalesce(n." + generationKey + ", -1) < {generation}"
+                        + " WITH n LIMIT {limit} DETACH DELETE n RETURN count(n)");
+    }
+
+    @VisibleForTesting
+    String relationshipsTemplate(String type) {
+        return templates.computeIfAbsent("relationships:" + type,
+                key -> "UNWIND {rows} AS row MATCH (a) WHERE id(a) = row.from MATCH (b) WHERE id(b) = row.to "
+                        + "CREATE (a)-[r:`" + type + "`]->(b) SET r = row.data RETURN r");
+    }
+
+    @VisibleForTesting
+    String mergeRelationshipsTemplate(String type, List<String> keys) {
+        return templates.computeIfAbsent("merge-relationships:" + type + ":" + String.join(",", keys),
+                key -> "UNWIND {rows} AS row MATCH (a) WHERE id(a) = row.from MATCH (b) WHERE id(b) = row.to "
+                        + "MERGE (a)-[r:`" + type + "` {" + keyPattern(keys, "row.data") + "}]->(b) SET r = row.data RETURN r");
+    }
+
+    /**
+     * ['a', 'b'] -> '`a`: row.`a`, `b`: row.`b`'
+     */
+    private static String keyPattern(List<String> keys, String row) {
+        return keys.stream().map( key -> "`" + key + "`: " + row + ".`" + key + "`" ).collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Extract the internal node id out of a node reference, ex. 'http://localhost:7474/db/data/node/42' -> 42
+     * @param nodeRef
+     * @return
+     */
+    private static long nodeId(String nodeRef) {
+        return Long.parseLong(nodeRef.substring(nodeRef.lastIndexOf('/') + 1));
+    }
+
     /**
      * Returns the query tracker
      * @return
@@ -207,7 +439,7 @@ public class Neo4jClient {
      * @param params - Map representation of the Cypher query params to fill in the placeholders in the query
      * @return
      */
-    private DocumentContext execute(String cql, Map<String, String> params) {
+    private DocumentContext execute(String cql, Map<String, ?> params) {
         final CypherRequest request = new CypherRequest();
         request.query = cql;
         request.params = params;
@@ -241,7 +473,27 @@ public class Neo4jClient {
      */
     private static class CypherRequest {
         public String query;
-        public Map<String, String> params;
+        public Map<String, ?> params;
+    }
+
+    /**
+     * Relationship to create in a batch
+     */
+    public static class Relationship {
+        private final String from;
+        private final String to;
+        private final Map<String, ?> attributes;
+
+        /**
+         * @param from - Node reference of the 'from' part
+         * @param to - Node reference of the 'to' part
+         * @param attributes - Extra fields for the relationship
+         */
+        public Relationship(String from, String to, Map<String, ?> attributes) {
+            this.from = from;
+            this.to = to;
+            this.attributes = attributes;
+        }
     }
 
     /**
@@ -250,6 +502,6 @@ public class Neo4jClient {
     private static class RelationshipRequest {
         public String to;
         public String type;
-        public Map<String, String> data;
+        public Map<String, ?> data;
     }
 }
@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.sqlite;
+
+import com.expediagroup.grpc.plugin.ExporterConfig;
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.expediagroup.grpc.plugin.ProtoSchemaExporter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Exports the ProtoSchema view model to an embedded SQLite database file, for exploring the schema with SQL
+ * without running Neo4j. See SQLiteSchemaStore for the tables and the impact queries.
+ *
+ * The store is recreated on every export: rows are written with batched prepared statements in a single
+ * transaction and the indexes are built afterwards.
+ */
+public class SQLiteProtoSchemaExporter implements ProtoSchemaExporter {
+
+    private static final Logger LOGGER = LogManager.getLogger(SQLiteProtoSchemaExporter.class);
+
+    protected static final String LOG_FILE_NAME = "sqlite-export-log.txt";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Path path;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private final StringBuilder log = new StringBuilder();
+
+    /**
+     * @param path - Database file
+     */
+    public SQLiteProtoSchemaExporter(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public void configure(ExporterConfig config) {
+        batchSize = Math.max(1, config.getInt(ExporterConfig.BATCH_SIZE, DEFAULT_BATCH_SIZE));
+    }
+
+    @Override
+    public void export(ProtoSchema schema) {
+        final long start = System.currentTimeMillis();
+        log.setLength(0);
+        try (SQLiteSchemaStore store = SQLiteSchemaStore.open(path)) {
+            final Connection connection = store.getConnection();
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                for (String table : SQLiteSchemaStore.DROP_TABLES) {
+                    execute(statement, table);
+                }
+                for (String table : SQLiteSchemaStore.TABLES) {
+                    execute(statement, table);
+                }
+
+                exportEntities(connection, schema);
+                exportRelationships(connection, schema);
+
+                for (String index : SQLiteSchemaStore.INDEXES) {
+                    execute(statement, index);
+                }
+                connection.commit();
+            } catch(SQLException ex) {
+                connection.rollback();
+                throw ex;
+            }
+        } catch(SQLException ex) {
+            throw new RuntimeException("Unable to export to " + SQLiteSchemaStore.url(path), ex);
+        }
+        log.append("==========Impact queries==========\n")
+                .append(SQLiteSchemaStore.TRANSITIVE_USES).append("\n")
+                .append(SQLiteSchemaStore.TRANSITIVE_USED_BY).append("\n");
+        LOGGER.info("Exported {} entities and {} relationships to {} in {}ms.", schema.getEntities().size(),
+                schema.getRelationships().size(), SQLiteSchemaStore.url(path), System.currentTimeMillis() - start);
+    }
+
+    private void exportEntities(Connection connection, ProtoSchema schema) throws SQLException {
+        try (PreparedStatement entities = prepare(connection, "INSERT INTO entity VALUES (?, ?)");
+             PreparedStatement attributes = prepare(connection, "INSERT INTO attribute VALUES (?, ?, ?)");
+             PreparedStatement properties = prepare(connection, "INSERT INTO property VALUES (?, ?, ?)")) {
+            final Batch entityBatch = new Batch("entity", entities);
+            final Batch attributeBatch = new Batch("attribute", attributes);
+            final Batch propertyBatch = new Batch("property", properties);
+            for (ProtoSchema.Entity entity : schema.getEntities().values()) {
+                entities.setString(1, entity.getName());
+                entities.setString(2, entity.getDomain());
+                entityBatch.add();
+                for (Map.Entry<String, String> attribute : entity.getAttributes().entrySet()) {
+                    attributes.setString(1, entity.getName());
+                    attributes.setString(2, attribute.getKey());
+                    attributes.setString(3, attribute.getValue());
+                    attributeBatch.add();
+                }
+                for (Map.Entry<String, String> property : entity.getProperties().entrySet()) {
+                    properties.setString(1, entity.getName());
+                    properties.setString(2, property.getKey());
+                    properties.setString(3, property.getValue());
+                    propertyBatch.add();
+                }
+            }
+            entityBatch.flush();
+            attributeBatch.flush();
+            propertyBatch.flush();
+        }
+    }
+
+    private void exportRelationships(Connection connection, ProtoSchema schema) throws SQLException {
+        try (PreparedStatement relationships = prepare(connection, "INSERT INTO relationship VALUES (?, ?, ?, ?)")) {
+            final Batch batch = new Batch("relationship", relationships);
+            for (ProtoSchema.RelationShip rel : schema.getRelationships()) {
+                relationships.setString(1, rel.getType());
+                relationships.setString(2, rel.getFieldName());
+                relationships.setString(3, rel.getTypeUsed());
+                relationships.setInt(4, rel.getMultiplicity());
+                batch.add();
+            }
+            batch.flush();
+        }
+    }
+
+    private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        log.append(sql).append("\n");
+        return connection.prepareStatement(sql);
+    }
+
+    private void execute(Statement statement, String sql) throws SQLException {
+        log.append(sql).append("\n");
+        statement.execute(sql);
+    }
+
+    /**
+     * Sends the rows of a prepared statement every 'batchSize' rows
+     */
+    private class Batch {
+        private final String table;
+        private final PreparedStatement statement;
+        private int size;
+        private int total;
+
+        Batch(String table, PreparedStatement statement) {
+            this.table = table;
+            this.statement = statement;
+        }
+
+        void add() throws SQLException {
+            statement.addBatch();
+            if (++size == batchSize) {
+                send();
+            }
+        }
+
+        void flush() throws SQLException {
+            send();
+            log.append("==========").append(table).append(" rows (").append(total).append(")==========\n");
+        }
+
+        private void send() throws SQLException {
+            if (size > 0) {
+                statement.executeBatch();
+                total += size;
+                size = 0;
+            }
+        }
+    }
+
+    /**
+     * Retrieve the statements that were run
+     */
+    @Override
+    public String getLog() {
+        return log.toString();
+    }
+
+    @Override
+    public String getLogName() {
+        return LOG_FILE_NAME;
+    }
+}
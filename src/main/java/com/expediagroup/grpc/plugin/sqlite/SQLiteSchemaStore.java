@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.sqlite;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embedded, single file SQLite store of the ProtoSchema view model written by SQLiteProtoSchemaExporter.
+ *
+ * Tables:
+ * <pre>
+ * entity(full_name, domain)
+ * attribute(entity_name, name, type)
+ * property(entity_name, name, property_value)
+ * relationship(from_name, field_name, to_name, multiplicity)
+ * </pre>
+ * A row of an aggregated relationship holds its comma separated field names in field_name.
+ * Impact queries walk the relationships with recursive common table expressions, UNION keeps them from
+ * looping over cyclic types as SQLite only queues rows it has not seen before.
+ */
+public class SQLiteSchemaStore implements AutoCloseable {
+
+    /**
+     * Every type the given type uses, directly or not
+     */
+    public static final String TRANSITIVE_USES =
+            "WITH RECURSIVE uses(name) AS ("
+            + " SELECT to_name FROM relationship WHERE from_name = ?"
+            + " UNION"
+            + " SELECT r.to_name FROM relationship r JOIN uses u ON r.from_name = u.name"
+            + ") SELECT name FROM uses ORDER BY name";
+
+    /**
+     * Every type using the given type, directly or not: what a change to it impacts
+     */
+    public static final String TRANSITIVE_USED_BY =
+            "WITH RECURSIVE used_by(name) AS ("
+            + " SELECT from_name FROM relationship WHERE to_name = ?"
+            + " UNION"
+            + " SELECT r.from_name FROM relationship r JOIN used_by u ON r.to_name = u.name"
+            + ") SELECT name FROM used_by ORDER BY name";
+
+    protected static final String[] DROP_TABLES = {
+            "DROP TABLE IF EXISTS entity",
+            "DROP TABLE IF EXISTS attribute",
+            "DROP TABLE IF EXISTS property",
+            "DROP TABLE IF EXISTS relationship"
+    };
+
+    protected static final String[] TABLES = {
+            "CREATE TABLE entity (full_name TEXT NOT NULL, domain TEXT NOT NULL)",
+            "CREATE TABLE attribute (entity_name TEXT NOT NULL, name TEXT NOT NULL, type TEXT NOT NULL)",
+            "CREATE TABLE property (entity_name TEXT NOT NULL, name TEXT NOT NULL, property_value TEXT NOT NULL)",
+            "CREATE TABLE relationship (from_name TEXT NOT NULL, field_name TEXT NOT NULL, to_name TEXT NOT NULL, multiplicity INTEGER NOT NULL)"
+    };
+
+    // Created once the rows are in, which is faster than maintaining them during the load
+    protected static final String[] INDEXES = {
+            "CREATE UNIQUE INDEX entity_full_name ON entity (full_name)",
+            "CREATE INDEX entity_domain ON entity (domain)",
+            "CREATE INDEX attribute_entity_name ON attribute (entity_name)",
+            "CREATE INDEX attribute_name ON attribute (name)",
+            "CREATE INDEX property_entity_name ON property (entity_name)",
+            "CREATE INDEX relationship_from_name ON relationship (from_name, to_name)",
+            "CREATE INDEX relationship_to_name ON relationship (to_name, from_name)"
+    };
+
+    private final Connection connection;
+
+    SQLiteSchemaStore(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Open, or create, a store
+     * @param path - Database file
+     * @return the store
+     */
+    public static SQLiteSchemaStore open(Path path) {
+        try {
+            return new SQLiteSchemaStore(DriverManager.getConnection(url(path)));
+        } catch(SQLException ex) {
+            throw new RuntimeException("Unable to open the schema store " + path, ex);
+        }
+    }
+
+    /**
+     * @param path - Database file
+     * @return the JDBC url of the store
+     */
+    public static String url(Path path) {
+        return "jdbc:sqlite:" + path.toAbsolutePath();
+    }
+
+    /**
+     * @return the underlying connection, for ad hoc queries
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @param name - Full name of a type
+     * @return the names of the types it uses, directly or not
+     */
+    public List<String> getTransitiveUses(String name) {
+        return query(TRANSITIVE_USES, name);
+    }
+
+    /**
+     * @param name - Full name of a type
+     * @return the names of the types using it, directly or not
+     */
+    public List<String> getTransitiveUsedBy(String name) {
+        return query(TRANSITIVE_USED_BY, name);
+    }
+
+    private List<String> query(String sql, String name) {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, name);
+            final List<String> names = new ArrayList<>();
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    names.add(result.getString(1));
+                }
+            }
+            return names;
+        } catch(SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            connection.close();
+        } catch(SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
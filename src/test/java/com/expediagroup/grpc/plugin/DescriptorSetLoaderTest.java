@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+import com.google.protobuf.DescriptorProtos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DescriptorSetLoaderTest {
+
+    private Path dump;
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        dump = Paths.get(new File(this.getClass().getResource("/descriptor_dump").getPath()).getPath());
+        directory = Files.createTempDirectory("descriptor-sets");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testReadDescriptorDump() throws Exception {
+        List<DescriptorProtos.FileDescriptorProto> files = DescriptorSetLoader.read(dump);
+        assertThat(files).extracting(DescriptorProtos.FileDescriptorProto::getName).contains("hello.proto");
+    }
+
+    @Test
+    public void testReadFileDescriptorSet() throws Exception {
+        List<DescriptorProtos.FileDescriptorProto> files = DescriptorSetLoader.read(dump);
+        Path descriptorSet = directory.resolve("hello.desc");
+        Files.write(descriptorSet, DescriptorProtos.FileDescriptorSet.newBuilder().addAllFile(files).build().toByteArray());
+
+        assertThat(DescriptorSetLoader.read(descriptorSet)).isEqualTo(files);
+    }
+
+    @Test
+    public void testMergeDeduplicatesSharedFiles() throws Exception {
+        List<DescriptorProtos.FileDescriptorProto> files = DescriptorSetLoader.read(dump);
+        Files.copy(dump, directory.resolve("first"));
+        Files.copy(dump, directory.resolve("second"));
+        Files.write(directory.resolve("third.desc"), DescriptorProtos.FileDescriptorSet.newBuilder()
+                .addAllFile(files).build().toByteArray());
+
+        List<DescriptorProtos.FileDescriptorProto> merged = new DescriptorSetLoader(2)
+                .load(Arrays.asList(directory, dump));
+
+        assertThat(merged).isEqualTo(files);
+    }
+
+    @Test
+    public void testMergedExport() throws Exception {
+        ProtoSchema[] exported = new ProtoSchema[1];
+        ProtoSchemaExporter exporter = new ProtoSchemaExporter() {
+            @Override
+            public void export(ProtoSchema schema) {
+                exported[0] = schema;
+            }
+
+            @Override
+            public String getLog() {
+                return "exported";
+            }
+
+            @Override
+            public String getLogName() {
+                return "merged.txt";
+            }
+        };
+
+        Path output = directory.resolve("out");
+        new ProtoVisualExporterPlugin(exporter, Collections.emptyList())
+                .generateFiles(Arrays.asList(dump, dump), output);
+
+        assertThat(exported[0].getEntities()).containsKey("hello.Greeting");
+        assertThat(new String(Files.readAllBytes(output.resolve("merged.txt")), "UTF-8")).isEqualTo("exported");
+    }
+}
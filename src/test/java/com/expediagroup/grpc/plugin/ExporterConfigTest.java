@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExporterConfigTest {
+
+    @Test
+    public void testDefaults() {
+        ExporterConfig config = ExporterConfig.parse("");
+        assertThat(config.getPoolSize()).isEqualTo(10);
+        assertThat(config.getPoolSizePerRoute()).isEqualTo(10);
+        assertThat(config.getConnectTimeoutMs()).isEqualTo(0);
+        assertThat(config.getReadTimeoutMs()).isEqualTo(0);
+        assertThat(config.isGzip()).isFalse();
+        assertThat(config.getBatchSize()).isEqualTo(1);
+        assertThat(config.getParallelism()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    public void testParseProtocParameter() {
+        ExporterConfig config = ExporterConfig.parse("pool_size=32, batch_size=500,gzip=true,read_timeout_ms=2000");
+        assertThat(config.getPoolSize()).isEqualTo(32);
+        assertThat(config.getPoolSizePerRoute()).isEqualTo(32);
+        assertThat(config.getBatchSize()).isEqualTo(500);
+        assertThat(config.isGzip()).isTrue();
+        assertThat(config.getReadTimeoutMs()).isEqualTo(2000);
+    }
+
+    @Test
+    public void testConfigFileIsOverriddenByGivenOptions() throws Exception {
+        Path file = Files.createTempFile("exporter", ".properties");
+        try {
+            Files.write(file, "parallelism=3\nbatch_size=100\n".getBytes(StandardCharsets.UTF_8));
+            ExporterConfig config = ExporterConfig.of("config=" + file, "batch_size=200");
+            assertThat(config.getParallelism()).isEqualTo(3);
+            assertThat(config.getBatchSize()).isEqualTo(200);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        ExporterConfig config = ExporterConfig.of("pool_size=4", "gzip=true")
+                .merge(ExporterConfig.parse("pool_size=8"));
+        assertThat(config.getPoolSize()).isEqualTo(8);
+        assertThat(config.isGzip()).isTrue();
+    }
+
+    @Test
+    public void testInvalidOptions() {
+        assertThatThrownBy(() -> ExporterConfig.parse("batch_size")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ExporterConfig.parse("batch_size=many").getBatchSize())
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -15,6 +15,9 @@
  */
 package com.expediagroup.grpc.plugin;
 
+import com.expediagroup.grpc.plugin.analysis.SchemaGraph;
+import com.expediagroup.grpc.plugin.analysis.SchemaGraphAnalyzer;
+import com.expediagroup.grpc.plugin.html.HtmlProtoSchemaExporter;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
 import com.google.protobuf.compiler.PluginProtos;
@@ -26,6 +29,8 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.io.FileInputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -83,32 +88,132 @@ public class ProtoVisualExporterPluginTest {
         assertThat((String)jsonContext.read("$['entities']['hello.Greeting']['name']")).isEqualTo("hello.Greeting");
 
         // Verify a entity attribute
-        assertThat((Map<String, String>)jsonContext.read("$['entities']['hello.Greeting']['attributes']"))
+        assertThat(jsonContext.<Map<String, String>>read("$['entities']['hello.Greeting']['attributes']"))
                 .hasEntrySatisfying("name", value -> assertThat(value).isEqualTo("TYPE_STRING"));
 
         // Verify enum entity
         assertThat((String)jsonContext.read("$['entities']['hello.OrderType']['name']")).isEqualTo("hello.OrderType");
+        assertThat(jsonContext.<List<String>>read("$['entities']['hello.OrderType']['enumValues']"))
+                .containsExactlyInAnyOrder("ORDER_TYPE_INVALID", "ORDER_TYPE_HOTEL", "ORDER_TYPE_FLIGHT");
+
+        // Verify field labels
+        assertThat(jsonContext.<Map<String, String>>read("$['entities']['hello.Response']['fieldLabels']"))
+                .containsEntry("haha", "LABEL_OPTIONAL")
+                .containsEntry("response_oneof", ProtoSchema.ONEOF_LABEL);
 
         // Verify one_of entity
         assertThat((String)jsonContext.read("$['entities']['hello.response_oneof']['name']")).isEqualTo("hello.response_oneof");
-        assertThat((Map<String, String>)jsonContext.read("$['entities']['hello.response_oneof']['attributes']"))
+        assertThat(jsonContext.<Map<String, String>>read("$['entities']['hello.response_oneof']['attributes']"))
                 .hasEntrySatisfying("error", value -> assertThat(value).isEqualTo("TYPE_STRING"));
 
         // Relationship Verifications
-        List<Map<String, String>> relationShips = jsonContext.read("$['relationships']");
+        List<Map<String, Object>> relationShips = jsonContext.read("$['relationships']");
 
         // Verify a entity->entity relationship: hello.Request has an order of type hello.Order
-        assertThat(relationShips).contains(ImmutableMap.of("type","hello.Request","fieldName","order","typeUsed","hello.Order"));
+        assertThat(relationShips).contains(ImmutableMap.of("type","hello.Request","fieldName","order","fieldNames",Collections.singletonList("order"),"multiplicity",1,"typeUsed","hello.Order"));
 
         // Verify a entity->enum relationship: hello.Order has an enum field orderType of enum type hello.OrderType
-        assertThat(relationShips).contains(ImmutableMap.of("type","hello.Order","fieldName","orderType","typeUsed","hello.OrderType"));
+        assertThat(relationShips).contains(ImmutableMap.of("type","hello.Order","fieldName","orderType","fieldNames",Collections.singletonList("orderType"),"multiplicity",1,"typeUsed","hello.OrderType"));
 
         // Verify a entity->oneof relationship: hello.Response has a one_of field response_oneof of type hello.response_oneof
-        assertThat(relationShips).contains(ImmutableMap.of("type","hello.Response","fieldName","response_oneof","typeUsed","hello.response_oneof"));
+        assertThat(relationShips).contains(ImmutableMap.of("type","hello.Response","fieldName","response_oneof","fieldNames",Collections.singletonList("response_oneof"),"multiplicity",1,"typeUsed","hello.response_oneof"));
 
         // Verify a one_of->entity relationship: hello.response_oneof has a field greeting of type hello.Greeting
-        assertThat(relationShips).contains(ImmutableMap.of("type","hello.response_oneof","fieldName","greeting","typeUsed","hello.Greeting"));
+        assertThat(relationShips).contains(ImmutableMap.of("type","hello.response_oneof","fieldName","greeting","fieldNames",Collections.singletonList("greeting"),"multiplicity",1,"typeUsed","hello.Greeting"));
+
+    }
+
+    @Test
+    public void readSimpleProtoStreaming() throws Exception {
+        List<ProtoSchema.Entity> entities = Collections.synchronizedList(new ArrayList<>());
+        List<ProtoSchema.RelationShip> relationShips = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+
+        class StreamingTestExporter extends TestExporter implements StreamingProtoSchemaExporter {
+            @Override
+            public ProtoSchemaSink openSink() {
+                return new ProtoSchemaSink() {
+                    @Override
+                    public void onEntity(ProtoSchema.Entity entity) {
+                        threads.add(Thread.currentThread());
+                        entities.add(entity);
+                    }
+
+                    @Override
+                    public void onRelationship(ProtoSchema.RelationShip relationShip) {
+                        relationShips.add(relationShip);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        schemaReturnString = "streamed";
+                    }
+                };
+            }
+        }
+
+        generator = new ProtoVisualExporterPlugin(new StreamingTestExporter(), Collections.emptyList(),
+                ExporterConfig.parse("streaming=true,queue_size=2"));
+
+        URL testproto = this.getClass().getResource("/descriptor_dump");
+        byte[] generatorRequestBytes = ByteStreams.toByteArray(new FileInputStream(new File(testproto.getPath())));
+        PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.parseFrom(
+                generatorRequestBytes);
+
+        List<PluginProtos.CodeGeneratorResponse.File> files = generator.generateFiles(request);
+        assertThat(files.get(0).getContent()).isEqualTo("streamed");
+
+        // Every entity is sent once, complete with its attributes, on the pipeline thread
+        assertThat(entities).extracting(ProtoSchema.Entity::getName).doesNotHaveDuplicates()
+                .contains("hello.Greeting", "hello.OrderType", "hello.response_oneof");
+        assertThat(entities.stream().filter( entity -> entity.getName().equals("hello.response_oneof") ).findFirst().get()
+                .getAttributes()).containsEntry("error", "TYPE_STRING");
+        assertThat(threads).doesNotContain(Thread.currentThread());
+        assertThat(relationShips).extracting(ProtoSchema.RelationShip::getFieldName).contains("order", "orderType");
+    }
+
+    @Test
+    public void testOnlyKnownKeysAreOptions() {
+        assertThat(ProtoVisualExporterPlugin.isOption("batch_size=500")).isTrue();
+        assertThat(ProtoVisualExporterPlugin.isOption("neo4j_password=a=b")).isTrue();
+        // Positional arguments holding '='
+        assertThat(ProtoVisualExporterPlugin.isOption("s3cr=t")).isFalse();
+        assertThat(ProtoVisualExporterPlugin.isOption("http://localhost:7474/db?tx=1")).isFalse();
+        assertThat(ProtoVisualExporterPlugin.isOption("/tmp/a=b/schema.db")).isFalse();
+        assertThat(ProtoVisualExporterPlugin.isOption("=value")).isFalse();
+        assertThat(ProtoVisualExporterPlugin.isOption("html")).isFalse();
+    }
+
+    @Test
+    public void testAnalyzersShareTheSchemaGraph() throws Exception {
+        List<SchemaGraph> graphs = new ArrayList<>();
+        List<ProtoSchemaAnalyzer> analyzers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            analyzers.add(new SchemaGraphAnalyzer() {
+                @Override
+                public void analyze(ProtoSchema schema, SchemaGraph graph) {
+                    graphs.add(graph);
+                }
+
+                @Override
+                public String getLog() {
+                    return "";
+                }
+
+                @Override
+                public String getLogName() {
+                    return "graph-" + graphs.size() + ".json";
+                }
+            });
+        }
+        Generator generator = new ProtoVisualExporterPlugin(new HtmlProtoSchemaExporter(), analyzers);
+
+        URL testproto = this.getClass().getResource("/descriptor_dump");
+        byte[] generatorRequestBytes = ByteStreams.toByteArray(new FileInputStream(new File(testproto.getPath())));
+        generator.generateFiles(PluginProtos.CodeGeneratorRequest.parseFrom(generatorRequestBytes));
 
+        assertThat(graphs).hasSize(2);
+        assertThat(graphs.get(1)).isSameAs(graphs.get(0));
     }
 
 }
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CycleAnalyzerTest {
+
+    @Test
+    public void testCycles() {
+        // a -> b -> c -> d -> b (cycle of 3), c -> e, f -> f (self reference), g alone
+        ProtoSchema schema = new ProtoSchema();
+        for (String name : new String[]{"a", "b", "c", "d", "e", "f", "g"}) {
+            schema.registerEntity(name, "pkg");
+        }
+        schema.registerRelationship("a", "toB", "b");
+        schema.registerRelationship("b", "toC", "c");
+        schema.registerRelationship("c", "toD", "d");
+        schema.registerRelationship("d", "toB", "b");
+        schema.registerRelationship("c", "toE", "e");
+        schema.registerRelationship("f", "self", "f");
+
+        CycleAnalyzer analyzer = new CycleAnalyzer();
+        analyzer.analyze(schema);
+
+        assertThat(analyzer.getLogName()).isEqualTo(CycleAnalyzer.LOG_FILE_NAME);
+        DocumentContext report = JsonPath.parse(analyzer.getLog());
+        assertThat(report.<Integer>read("$.components")).isEqualTo(5);
+        assertThat(report.<Integer>read("$.cyclicComponents")).isEqualTo(2);
+        assertThat(report.<Integer>read("$.largestComponent")).isEqualTo(3);
+        assertThat(report.<Integer>read("$.maxReferenceDepth")).isEqualTo(2);
+        assertThat(report.<List<String>>read("$.deepestTypes")).containsExactly("a");
+        assertThat(report.<List<String>>read("$.cycles[0].members")).containsExactly("b", "c", "d");
+        assertThat(report.<List<String>>read("$.cycles[0].cycle")).containsExactly("b", "c", "d", "b");
+        assertThat(report.<List<String>>read("$.cycles[1].cycle")).containsExactly("f", "f");
+
+        assertThat(schema.getEntities().get("c").getProperties())
+                .containsEntry(CycleAnalyzer.CYCLIC_KEY, "true")
+                .containsEntry(CycleAnalyzer.COMPONENT_SIZE_KEY, "3")
+                .containsEntry(CycleAnalyzer.REFERENCE_DEPTH_KEY, "1");
+        assertThat(schema.getEntities().get("g").getProperties())
+                .containsEntry(CycleAnalyzer.CYCLIC_KEY, "false")
+                .containsEntry(CycleAnalyzer.REFERENCE_DEPTH_KEY, "0");
+    }
+
+    @Test
+    public void testDeepChainDoesNotOverflow() {
+        ProtoSchema schema = new ProtoSchema();
+        int n = 200000;
+        for (int i = 0; i < n; i++) {
+            schema.registerRelationship("t" + i, "next", "t" + (i + 1));
+        }
+        schema.registerRelationship("t" + n, "first", "t0");
+
+        SchemaGraph graph = SchemaGraph.of(schema);
+        assertThat(graph.getComponentCount()).isEqualTo(1);
+        assertThat(graph.getComponentMembers(0)).hasSize(n + 1);
+        assertThat(CycleAnalyzer.referenceDepths(graph)).containsExactly(0);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageProfileAnalyzerTest {
+
+    private static void field(ProtoSchema schema, String entity, String field, String type, String label) {
+        schema.registerEntityAttribute(entity, field, type);
+        schema.registerFieldLabel(entity, field, label);
+    }
+
+    private static void reference(ProtoSchema schema, String entity, String field, String type, String label) {
+        schema.registerRelationship(entity, field, type);
+        schema.registerFieldLabel(entity, field, label);
+    }
+
+    @Test
+    public void testProfile() {
+        ProtoSchema schema = new ProtoSchema();
+        for (String name : new String[]{"shop.Money", "shop.Line", "shop.Order", "shop.Status", "shop.payment", "shop.Node"}) {
+            schema.registerEntity(name, "shop");
+        }
+        schema.registerEnumValue("shop.Status", "OPEN");
+
+        // Money: required int64 (min 2, typical 6) + string (typical 18)
+        field(schema, "shop.Money", "units", "TYPE_INT64", "LABEL_REQUIRED");
+        field(schema, "shop.Money", "currency", "TYPE_STRING", "LABEL_OPTIONAL");
+        // Line: double (9) + money (1 + 1 + 24)
+        field(schema, "shop.Line", "quantity", "TYPE_DOUBLE", "LABEL_OPTIONAL");
+        reference(schema, "shop.Line", "price", "shop.Money", "LABEL_OPTIONAL");
+        // Order: 4 lines (4 * 37), a status (2), a oneof of a money or a string (max 26, 18), a map (4 * 16 + tags)
+        reference(schema, "shop.Order", "lines", "shop.Line", "LABEL_REPEATED");
+        reference(schema, "shop.Order", "status", "shop.Status", "LABEL_OPTIONAL");
+        reference(schema, "shop.Order", "payment", "shop.payment", ProtoSchema.ONEOF_LABEL);
+        reference(schema, "shop.payment", "amount", "shop.Money", "LABEL_OPTIONAL");
+        field(schema, "shop.payment", "voucher", "TYPE_STRING", "LABEL_OPTIONAL");
+        reference(schema, "shop.Order", "tags", "shop.Order.TagsEntry", ProtoSchema.MAP_LABEL);
+        // Recursive type: only one level is counted
+        field(schema, "shop.Node", "id", "TYPE_INT32", "LABEL_OPTIONAL");
+        reference(schema, "shop.Node", "children", "shop.Node", "LABEL_REPEATED");
+
+        MessageProfileAnalyzer analyzer = new MessageProfileAnalyzer();
+        analyzer.analyze(schema);
+
+        // Used by Line, and by Order through its oneof
+        assertThat(schema.getEntities().get("shop.Money").getProperties())
+                .containsEntry(MessageProfileAnalyzer.MIN_SIZE_KEY, "2")
+                .containsEntry(MessageProfileAnalyzer.TYPICAL_SIZE_KEY, "24")
+                .containsEntry(MessageProfileAnalyzer.FAN_IN_KEY, "2")
+                .containsEntry(MessageProfileAnalyzer.FAN_OUT_KEY, "0")
+                .containsEntry(MessageProfileAnalyzer.NESTING_DEPTH_KEY, "0");
+        assertThat(schema.getEntities().get("shop.Line").getProperties())
+                .containsEntry(MessageProfileAnalyzer.MIN_SIZE_KEY, "0")
+                .containsEntry(MessageProfileAnalyzer.TYPICAL_SIZE_KEY, "35")
+                .containsEntry(MessageProfileAnalyzer.FAN_IN_KEY, "1")
+                .containsEntry(MessageProfileAnalyzer.FAN_OUT_KEY, "1");
+        assertThat(schema.getEntities().get("shop.Order").getProperties())
+                .containsEntry(MessageProfileAnalyzer.TYPICAL_SIZE_KEY, String.valueOf(4 * 37 + 2 + 26 + 4 * 18))
+                // Line and Money through the oneof, not the oneof itself, the Status enum nor the map entry
+                .containsEntry(MessageProfileAnalyzer.FAN_IN_KEY, "0")
+                .containsEntry(MessageProfileAnalyzer.FAN_OUT_KEY, "2")
+                .containsEntry(MessageProfileAnalyzer.NESTING_DEPTH_KEY, "2")
+                .containsEntry(MessageProfileAnalyzer.REPEATED_FIELDS_KEY, "2");
+        assertThat(schema.getEntities().get("shop.Node").getProperties())
+                .containsEntry(MessageProfileAnalyzer.TYPICAL_SIZE_KEY, "3")
+                .containsEntry(MessageProfileAnalyzer.NESTING_DEPTH_KEY, "1");
+        assertThat(schema.getEntities().get("shop.payment").getProperties())
+                .containsEntry(MessageProfileAnalyzer.TYPICAL_SIZE_KEY, "26")
+                .doesNotContainKeys(MessageProfileAnalyzer.FAN_IN_KEY, MessageProfileAnalyzer.FAN_OUT_KEY);
+        assertThat(schema.getEntities().get("shop.Status").getProperties()).isEmpty();
+
+        assertThat(analyzer.getLogName()).isEqualTo(MessageProfileAnalyzer.LOG_FILE_NAME);
+        DocumentContext report = JsonPath.parse(analyzer.getLog());
+        assertThat(report.<List<String>>read("$.messages[*].name"))
+                .containsExactly("shop.Order", "shop.Line", "shop.Money", "shop.Node");
+        assertThat(report.<Map<String, Object>>read("$.messages[3]")).containsEntry("cyclic", true);
+    }
+
+    @Test
+    public void testVarintSize() {
+        assertThat(MessageProfileAnalyzer.varintSize(0)).isEqualTo(1);
+        assertThat(MessageProfileAnalyzer.varintSize(127)).isEqualTo(1);
+        assertThat(MessageProfileAnalyzer.varintSize(128)).isEqualTo(2);
+        assertThat(MessageProfileAnalyzer.varintSize(16384)).isEqualTo(3);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.analysis;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReachabilityIndexTest {
+
+    /**
+     * a -> b -> c -> d, c <-> e (cycle), f -> f (self reference), g alone
+     */
+    private static ProtoSchema buildSchema() {
+        ProtoSchema schema = new ProtoSchema();
+        for (String name : new String[]{"a", "b", "c", "d", "e", "f", "g"}) {
+            schema.registerEntity(name, "pkg");
+        }
+        schema.registerRelationship("a", "toB", "b");
+        schema.registerRelationship("a", "otherB", "b");
+        schema.registerRelationship("b", "toC", "c");
+        schema.registerRelationship("c", "toD", "d");
+        schema.registerRelationship("c", "toE", "e");
+        schema.registerRelationship("e", "toC", "c");
+        schema.registerRelationship("f", "self", "f");
+        return schema;
+    }
+
+    @Test
+    public void testComponents() {
+        SchemaGraph graph = SchemaGraph.of(buildSchema());
+
+        assertThat(graph.size()).isEqualTo(7);
+        assertThat(graph.getComponent(graph.getId("c"))).isEqualTo(graph.getComponent(graph.getId("e")));
+        assertThat(graph.isCyclic(graph.getComponent(graph.getId("c")))).isTrue();
+        assertThat(graph.isCyclic(graph.getComponent(graph.getId("f")))).isTrue();
+        assertThat(graph.isCyclic(graph.getComponent(graph.getId("a")))).isFalse();
+        assertThat(graph.getComponentCount()).isEqualTo(6);
+        assertThat(graph.getId("unknown")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testUses() {
+        ReachabilityIndex index = ReachabilityIndex.build(SchemaGraph.of(buildSchema()));
+
+        assertThat(index.uses("a", "d")).isTrue();
+        assertThat(index.uses("a", "e")).isTrue();
+        assertThat(index.uses("d", "a")).isFalse();
+        assertThat(index.uses("a", "a")).isFalse();
+        assertThat(index.uses("c", "c")).isTrue();
+        assertThat(index.uses("f", "f")).isTrue();
+        assertThat(index.uses("g", "a")).isFalse();
+        assertThat(index.isUsedBy("d", "b")).isTrue();
+
+        assertThat(index.getUses("a")).containsExactly("b", "c", "d", "e");
+        assertThat(index.getUses("e")).containsExactly("c", "d", "e");
+        assertThat(index.getUsedBy("d")).containsExactly("a", "b", "c", "e");
+        assertThat(index.getUsedBy("a")).isEmpty();
+        assertThat(index.countUses("a")).isEqualTo(4);
+        assertThat(index.countUsedBy("c")).isEqualTo(4);
+        assertThat(index.getUses("unknown")).isEmpty();
+    }
+
+    @Test
+    public void testLongChainStaysCompact() {
+        int length = 20000;
+        ProtoSchema schema = new ProtoSchema();
+        for (int i = 0; i < length; i++) {
+            schema.registerEntity("t" + i, "pkg");
+            if (i > 0) {
+                schema.registerRelationship("t" + (i - 1), "next", "t" + i);
+            }
+        }
+        ReachabilityIndex index = ReachabilityIndex.build(SchemaGraph.of(schema));
+
+        assertThat(index.countUses("t0")).isEqualTo(length - 1);
+        assertThat(index.countUsedBy("t" + (length - 1))).isEqualTo(length - 1);
+        assertThat(index.uses("t5", "t19999")).isTrue();
+        // Rows of contiguous components are single runs, far below the 50MB of uncompressed rows
+        assertThat(index.getSizeInBytes()).isLessThan(64L * 2 * length);
+    }
+
+    @Test
+    public void testAnalyzerRegistersProperties() {
+        ProtoSchema schema = buildSchema();
+        ReachabilityAnalyzer analyzer = new ReachabilityAnalyzer();
+        analyzer.analyze(schema);
+
+        assertThat(schema.getEntities().get("a").getProperties())
+                .containsEntry(ReachabilityAnalyzer.TRANSITIVE_USES_KEY, "4")
+                .containsEntry(ReachabilityAnalyzer.TRANSITIVE_USED_BY_KEY, "0");
+        assertThat(analyzer.getLogName()).isEqualTo(ReachabilityAnalyzer.LOG_FILE_NAME);
+    }
+
+    @Test
+    public void testAnalyzerWritesTheCondensedGraph() {
+        ProtoSchema schema = buildSchema();
+        SchemaGraph graph = SchemaGraph.of(schema);
+        ReachabilityAnalyzer analyzer = new ReachabilityAnalyzer();
+        analyzer.analyze(schema, graph);
+
+        // One entry per type and per component instead of the closures
+        DocumentContext log = JsonPath.parse(analyzer.getLog());
+        List<String> types = log.read("$.types");
+        List<Integer> components = log.read("$.components");
+        assertThat(types).hasSize(7);
+        assertThat(log.<List<Object>>read("$.successors")).hasSize(6);
+        int a = components.get(types.indexOf("a"));
+        int b = components.get(types.indexOf("b"));
+        int c = components.get(types.indexOf("c"));
+        assertThat(components.get(types.indexOf("e"))).isEqualTo(c);
+        assertThat(log.<List<Integer>>read("$.successors[" + a + "]")).containsExactly(b);
+        assertThat(log.<List<Integer>>read("$.cyclic")).containsExactlyInAnyOrder(c, components.get(types.indexOf("f")));
+        assertThat(analyzer.getLog()).doesNotContain("usedBy");
+    }
+}
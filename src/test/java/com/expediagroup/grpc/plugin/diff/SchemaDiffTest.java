@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.diff;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.expediagroup.grpc.plugin.ProtoVisualExporterPlugin;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SchemaDiffTest {
+
+    private static ProtoSchema baseSchema() {
+        ProtoSchema schema = new ProtoSchema();
+        schema.registerEntity("pkg.Order", "pkg");
+        schema.registerEntityAttribute("pkg.Order", "id", "TYPE_STRING");
+        schema.registerEntityAttribute("pkg.Order", "amount", "TYPE_INT32");
+        schema.registerEntity("pkg.Customer", "pkg");
+        schema.registerEntityAttribute("pkg.Customer", "name", "TYPE_STRING");
+        schema.registerEntity("pkg.Legacy", "pkg");
+        schema.registerEntity("pkg.Unchanged", "pkg");
+        schema.registerEntityAttribute("pkg.Unchanged", "value", "TYPE_BOOL");
+        schema.registerRelationship("pkg.Order", "customer", "pkg.Customer");
+        schema.registerRelationship("pkg.Order", "legacy", "pkg.Legacy");
+        return schema;
+    }
+
+    @Test
+    public void testIdenticalSchemasHaveNoDiff() {
+        SchemaDiff diff = SchemaDiff.compare(baseSchema(), baseSchema());
+        assertThat(diff.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testAggregatedRelationshipsHaveNoDiff() {
+        ProtoSchema before = baseSchema();
+        before.registerRelationship("pkg.Order", "previous", "pkg.Customer");
+        ProtoSchema after = baseSchema();
+        after.registerRelationship("pkg.Order", "previous", "pkg.Customer");
+        after.aggregateRelationships();
+
+        assertThat(after.getRelationships()).hasSize(2);
+        assertThat(SchemaDiff.compare(before, after).isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testAddedRemovedAndRetyped() {
+        ProtoSchema after = new ProtoSchema();
+        after.registerEntity("pkg.Order", "pkg");
+        after.registerEntityAttribute("pkg.Order", "id", "TYPE_STRING");
+        after.registerEntityAttribute("pkg.Order", "amount", "TYPE_INT64");
+        after.registerEntityAttribute("pkg.Order", "currency", "TYPE_STRING");
+        after.registerEntity("pkg.Customer", "pkg");
+        after.registerEntityAttribute("pkg.Customer", "name", "TYPE_STRING");
+        after.registerEntity("pkg.Account", "pkg");
+        after.registerEntity("pkg.Unchanged", "pkg");
+        after.registerEntityAttribute("pkg.Unchanged", "value", "TYPE_BOOL");
+        after.registerRelationship("pkg.Order", "customer", "pkg.Account");
+        after.registerRelationship("pkg.Account", "owner", "pkg.Customer");
+
+        SchemaDiff diff = SchemaDiff.compare(baseSchema(), after);
+
+        assertThat(diff.getAddedEntities()).containsExactly("pkg.Account");
+        assertThat(diff.getRemovedEntities()).containsExactly("pkg.Legacy");
+        assertThat(diff.getChangedEntities()).hasSize(1);
+
+        SchemaDiff.EntityChange order = diff.getChangedEntities().get(0);
+        assertThat(order.getName()).isEqualTo("pkg.Order");
+        assertThat(order.getDomain()).isNull();
+        assertThat(order.getAddedFields()).containsEntry("currency", "TYPE_STRING");
+        assertThat(order.getRetypedFields().get("amount").getBefore()).isEqualTo("TYPE_INT32");
+        assertThat(order.getRetypedFields().get("amount").getAfter()).isEqualTo("TYPE_INT64");
+        assertThat(order.getRemovedEdges()).containsEntry("legacy", "pkg.Legacy");
+        assertThat(order.getRetypedEdges().get("customer").getAfter()).isEqualTo("pkg.Account");
+
+        // Edges of pkg.Order are only reported by its EntityChange, the ones of the added entity on their own
+        assertThat(diff.getAddedRelationships()).extracting(SchemaDiff.Edge::getFieldName).containsExactly("owner");
+        assertThat(diff.getRemovedRelationships()).isEmpty();
+
+        DocumentContext json = JsonPath.parse(diff.toString());
+        assertThat((String) json.read("$['changedEntities'][0]['retypedEdges']['customer']['before']")).isEqualTo("pkg.Customer");
+    }
+
+    @Test
+    public void testRelabeledFields() {
+        ProtoSchema before = baseSchema();
+        before.registerFieldLabel("pkg.Order", "id", "LABEL_OPTIONAL");
+        before.registerFieldLabel("pkg.Order", "customer", "LABEL_OPTIONAL");
+        ProtoSchema after = baseSchema();
+        after.registerFieldLabel("pkg.Order", "id", "LABEL_OPTIONAL");
+        after.registerFieldLabel("pkg.Order", "customer", "LABEL_REPEATED");
+        after.registerFieldLabel("pkg.Order", "choice", ProtoSchema.ONEOF_LABEL);
+
+        SchemaDiff diff = SchemaDiff.compare(before, after);
+
+        assertThat(diff.getChangedEntities()).hasSize(1);
+        SchemaDiff.EntityChange order = diff.getChangedEntities().get(0);
+        assertThat(order.getRelabeledFields()).containsOnlyKeys("customer", "choice");
+        assertThat(order.getRelabeledFields().get("customer").getBefore()).isEqualTo("LABEL_OPTIONAL");
+        assertThat(order.getRelabeledFields().get("customer").getAfter()).isEqualTo("LABEL_REPEATED");
+        assertThat(order.getRelabeledFields().get("choice").getBefore()).isNull();
+        assertThat(order.getRetypedEdges()).isEmpty();
+    }
+
+    @Test
+    public void testEnumValues() {
+        ProtoSchema before = baseSchema();
+        before.registerEntity("pkg.Status", "pkg");
+        before.registerEnumValue("pkg.Status", "ACTIVE");
+        before.registerEnumValue("pkg.Status", "LEGACY");
+        ProtoSchema after = baseSchema();
+        after.registerEntity("pkg.Status", "pkg");
+        after.registerEnumValue("pkg.Status", "ACTIVE");
+        after.registerEnumValue("pkg.Status", "CANCELLED");
+
+        SchemaDiff diff = SchemaDiff.compare(before, after);
+
+        assertThat(diff.getChangedEntities()).hasSize(1);
+        SchemaDiff.EntityChange status = diff.getChangedEntities().get(0);
+        assertThat(status.getName()).isEqualTo("pkg.Status");
+        assertThat(status.getAddedEnumValues()).containsExactly("CANCELLED");
+        assertThat(status.getRemovedEnumValues()).containsExactly("LEGACY");
+
+        DocumentContext json = JsonPath.parse(diff.toString());
+        assertThat(json.<List<String>>read("$['changedEntities'][0]['addedEnumValues']")).containsExactly("CANCELLED");
+    }
+
+    @Test
+    public void testRelationshipsOfUnregisteredTypes() {
+        ProtoSchema after = baseSchema();
+        after.registerRelationship("pkg.Unregistered", "order", "pkg.Order");
+
+        SchemaDiff diff = SchemaDiff.compare(baseSchema(), after);
+
+        assertThat(diff.isEmpty()).isFalse();
+        assertThat(diff.getChangedEntities()).isEmpty();
+        assertThat(diff.getAddedRelationships()).hasSize(1);
+        assertThat(diff.getAddedRelationships().get(0).getType()).isEqualTo("pkg.Unregistered");
+        assertThat(diff.getAddedRelationships().get(0).getFieldName()).isEqualTo("order");
+        assertThat(SchemaDiff.compare(after, baseSchema()).getRemovedRelationships()).hasSize(1);
+    }
+
+    @Test
+    public void testDiffDescriptorDumps() throws Exception {
+        Path dump = Paths.get(new File(this.getClass().getResource("/descriptor_dump").getPath()).getPath());
+        Path output = Files.createTempFile("schema-diff", ".json");
+        try {
+            SchemaDiff diff = ProtoVisualExporterPlugin.diff(dump, dump, output);
+            assertThat(diff.isEmpty()).isTrue();
+            assertThat(Files.readAllBytes(output)).isNotEmpty();
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+}
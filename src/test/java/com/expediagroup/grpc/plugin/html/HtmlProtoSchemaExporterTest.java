@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.html;
+
+import com.expediagroup.grpc.plugin.ExporterConfig;
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HtmlProtoSchemaExporterTest {
+
+    @Test
+    public void testLayoutKeepsLinkedNodesClose() {
+        // Two chains of 50 nodes each, in two clusters
+        int n = 100;
+        int[][] neighbours = new int[n][];
+        int[] clusters = new int[n];
+        for (int i = 0; i < n; i++) {
+            int first = (i / 50) * 50;
+            clusters[i] = i / 50;
+            if (i == first) {
+                neighbours[i] = new int[]{i + 1};
+            } else if (i == first + 49) {
+                neighbours[i] = new int[]{i - 1};
+            } else {
+                neighbours[i] = new int[]{i - 1, i + 1};
+            }
+        }
+
+        double[][] positions = new BarnesHutLayout(neighbours, clusters, 200, 0.8, 2).compute();
+
+        double linked = 0;
+        double all = 0;
+        for (int i = 0; i < n; i++) {
+            assertThat(positions[0][i]).isBetween(0.0, 1.0);
+            assertThat(positions[1][i]).isBetween(0.0, 1.0);
+            if (i % 50 != 49) {
+                linked += distance(positions, i, i + 1);
+            }
+            all += distance(positions, i, (i * 37 + 11) % n);
+        }
+        assertThat(linked / 98).isLessThan(all / n);
+    }
+
+    @Test
+    public void testExport() {
+        ProtoSchema schema = new ProtoSchema();
+        for (int i = 0; i < 30; i++) {
+            schema.registerEntity("pkg" + (i % 3) + ".Type" + i, "pkg" + (i % 3));
+            if (i > 0) {
+                schema.registerRelationship("pkg" + (i % 3) + ".Type" + i, "parent", "pkg0.Type0");
+            }
+        }
+        schema.registerRelationship("pkg0.Type0", "unknown", "pkg9.Missing");
+
+        HtmlProtoSchemaExporter exporter = new HtmlProtoSchemaExporter();
+        exporter.configure(ExporterConfig.parse("layout_iterations=50,tile_capacity=4"));
+        exporter.export(schema);
+
+        Map<String, String> files = exporter.getFiles();
+        assertThat(files).containsOnlyKeys(HtmlProtoSchemaExporter.HTML_FILE_NAME, HtmlProtoSchemaExporter.JSON_FILE_NAME);
+        assertThat(exporter.getLog()).contains("pkg0.Type0").doesNotContain("/*GRAPH_DATA*/");
+
+        DocumentContext json = JsonPath.parse(files.get(HtmlProtoSchemaExporter.JSON_FILE_NAME));
+        assertThat(json.<List<Object>>read("$.nodes")).hasSize(30);
+        assertThat(json.<List<Object>>read("$.edges")).hasSize(29);
+        assertThat(json.<List<String>>read("$.domains")).containsExactly("pkg0", "pkg1", "pkg2");
+
+        // 30 nodes with 4 per tile: level 0 and 1 are truncated, level 2 holds every node
+        Map<String, List<Integer>> tiles = json.read("$.tiles");
+        assertThat(tiles.get("0/0/0")).hasSize(4).startsWith(0);
+        assertThat(tiles.entrySet().stream()
+                .filter( tile -> tile.getKey().startsWith("2/") )
+                .mapToInt( tile -> tile.getValue().size() )
+                .sum()).isEqualTo(30);
+        assertThat(tiles.keySet()).noneMatch( key -> key.startsWith("3/") );
+    }
+
+    private static double distance(double[][] positions, int a, int b) {
+        double dx = positions[0][a] - positions[0][b];
+        double dy = positions[1][a] - positions[1][b];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.index;
+
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FieldIndexProtoSchemaExporterTest {
+
+    @Test
+    public void testTokens() {
+        assertThat(FieldIndex.tokens("user_id")).containsExactly("user", "id");
+        assertThat(FieldIndex.tokens("userId")).containsExactly("user", "id");
+        assertThat(FieldIndex.tokens("HTTPServerURL2")).containsExactly("http", "server", "url2");
+        assertThat(FieldIndex.keys("hello.Request")).containsExactly("hello.request", "hello", "request");
+    }
+
+    @Test
+    public void testLookups() throws Exception {
+        ProtoSchema schema = new ProtoSchema();
+        schema.registerEntity("shop.Order", "shop");
+        schema.registerEntityAttribute("shop.Order", "order_id", "TYPE_STRING");
+        schema.registerEntityAttribute("shop.Order", "createdAt", "TYPE_INT64");
+        schema.registerEntity("shop.User", "shop");
+        schema.registerEntityAttribute("shop.User", "user_id", "TYPE_STRING");
+        schema.registerEntity("shop.Status", "shop");
+        schema.registerEnumValue("shop.Status", "STATUS_CANCELLED");
+        schema.registerEntity("common.Money", "common");
+        schema.registerRelationship("shop.Order", "buyer", "shop.User");
+        schema.registerRelationship("shop.Order", "total", "common.Money");
+        schema.registerRelationship("shop.Order", "status", "shop.Status");
+
+        FieldIndexProtoSchemaExporter exporter = new FieldIndexProtoSchemaExporter();
+        exporter.export(schema);
+        Map<String, String> files = exporter.getFiles();
+        assertThat(files).containsOnlyKeys(FieldIndexProtoSchemaExporter.INDEX_FILE_NAME, FieldIndexProtoSchemaExporter.LOG_FILE_NAME);
+        assertThat(exporter.getLog()).contains("\"entities\":4");
+
+        Path path = Files.createTempFile("field-index", ".txt");
+        Files.write(path, files.get(FieldIndexProtoSchemaExporter.INDEX_FILE_NAME).getBytes(StandardCharsets.UTF_8));
+        FieldIndex index = FieldIndex.open(path);
+        Files.delete(path);
+
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "user_id")).containsExactly("shop.User");
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "ID")).containsExactly("shop.Order", "shop.User");
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "created")).containsExactly("shop.Order");
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "buyer")).containsExactly("shop.Order");
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "missing")).isEmpty();
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "use")).isEmpty();
+        assertThat(index.lookupPrefix(FieldIndex.FIELD_NAME, "use")).containsExactly("shop.User");
+        assertThat(index.lookupPrefix(FieldIndex.FIELD_NAME, "")).containsExactly("shop.Order", "shop.User");
+
+        assertThat(index.lookup(FieldIndex.FIELD_TYPE, "string")).containsExactly("shop.Order", "shop.User");
+        assertThat(index.lookup(FieldIndex.FIELD_TYPE, "common.Money")).containsExactly("shop.Order");
+        assertThat(index.lookupPrefix(FieldIndex.FIELD_TYPE, "mon")).containsExactly("shop.Order");
+
+        assertThat(index.lookup(FieldIndex.ENUM_VALUE, "cancelled")).containsExactly("shop.Status");
+        assertThat(index.lookupPrefix(FieldIndex.ENUM_VALUE, "status_")).containsExactly("shop.Status");
+        assertThat(index.lookupPrefix(FieldIndex.ENUM_VALUE, "z")).isEmpty();
+    }
+
+    @Test
+    public void testAggregatedRelationships() throws Exception {
+        ProtoSchema schema = new ProtoSchema();
+        schema.registerEntity("shop.Order", "shop");
+        schema.registerEntity("common.Money", "common");
+        schema.registerRelationship("shop.Order", "total", "common.Money");
+        schema.registerRelationship("shop.Order", "tax", "common.Money");
+        schema.aggregateRelationships();
+
+        FieldIndexProtoSchemaExporter exporter = new FieldIndexProtoSchemaExporter();
+        exporter.export(schema);
+        FieldIndex index = FieldIndex.of(exporter.getFiles().get(FieldIndexProtoSchemaExporter.INDEX_FILE_NAME));
+
+        // Every field of the aggregated edge is indexed on its own
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "total")).containsExactly("shop.Order");
+        assertThat(index.lookup(FieldIndex.FIELD_NAME, "tax")).containsExactly("shop.Order");
+        assertThat(index.lookupPrefix(FieldIndex.FIELD_NAME, "tax,")).isEmpty();
+    }
+
+    @Test
+    public void testRejectsOtherFiles() {
+        assertThatThrownBy(() -> FieldIndex.of("not an index\n")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
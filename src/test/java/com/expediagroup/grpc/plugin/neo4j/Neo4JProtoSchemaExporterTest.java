@@ -15,19 +15,36 @@
  */
 package com.expediagroup.grpc.plugin.neo4j;
 
+import com.expediagroup.grpc.plugin.ExporterConfig;
 import com.expediagroup.grpc.plugin.ProtoSchema;
+import com.expediagroup.grpc.plugin.ProtoSchemaSink;
 import com.expediagroup.grpc.plugin.ProtoSchemaExporter;
+import com.expediagroup.grpc.plugin.ProtoVisualExporterPlugin;
+import com.google.protobuf.compiler.PluginProtos;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.mock;
@@ -105,4 +122,338 @@ class Neo4JProtoSchemaExporterTest {
 
         verify(neo4jClient, times(1)).createRelationShip(eq(node1ref), eq(node2ref), eq("uses"), eq(relationshipExpectedField));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBatchedExport() {
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(ExporterConfig.parse("batch_size=10,parallelism=2"));
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        protoSchema.registerEntity("node2", "expediagroup.package");
+        protoSchema.registerRelationship("node1", "pointerToNode2", "node2");
+
+        when(neo4jClient.createNodes(eq("expediagroup_package"), anyList())).thenAnswer( invocation -> {
+            List<Map<String, String>> attributes = invocation.getArgument(1);
+            return Arrays.asList(attributes.get(0).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref",
+                    attributes.get(1).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref");
+        });
+
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        verify(neo4jClient, times(1)).createNodes(eq("expediagroup_package"), anyList());
+        verify(neo4jClient, times(0)).createNode(any(), any());
+        verify(neo4jClient, times(1)).createRelationShips(eq(Neo4JProtoSchemaExporter.RELATIONSHIP_TYPE), anyList());
+        verify(neo4jClient, times(0)).createRelationShip(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testStreamingExportWaitsForBothNodes() {
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(ExporterConfig.parse("parallelism=2"));
+        when(neo4jClient.createNode(eq("expediagroup_package"), any())).thenAnswer( invocation ->
+                invocation.<Map<String, String>>getArgument(1).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref");
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        ProtoSchemaSink sink = neo4JProtoSchemaExporter.openSink();
+        verify(neo4jClient, times(1)).clean();
+        protoSchema.setSink(sink);
+
+        // The relationship shows up before the node it points to
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        protoSchema.registerRelationship("node1", "pointerToNode2", "node2");
+        protoSchema.registerRelationship("node1", "pointerToUnknown", "unknown");
+        protoSchema.completeEntity("node1");
+        protoSchema.registerEntity("node2", "expediagroup.package");
+        protoSchema.completeEntity("node2");
+        sink.onComplete();
+
+        Map<String, String> relationshipExpectedField = new HashMap<>();
+        relationshipExpectedField.put(Neo4JProtoSchemaExporter.RELATIONSHIP_FIELD_KEY, "pointerToNode2");
+
+        verify(neo4jClient, times(2)).createNode(eq("expediagroup_package"), any());
+        verify(neo4jClient, times(1)).createRelationShip(any(), any(), any(), any());
+        verify(neo4jClient, times(1)).createRelationShip(eq("node1ref"), eq("node2ref"), eq("uses"), eq(relationshipExpectedField));
+    }
+
+    @Test
+    public void testExportResumesFromCheckpoint() throws Exception {
+        Path checkpointDir = Files.createTempDirectory("checkpoint");
+        ExporterConfig config = ExporterConfig.of("checkpoint=true", "checkpoint_dir=" + checkpointDir, "parallelism=1");
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        protoSchema.registerEntity("node2", "expediagroup.package");
+        protoSchema.registerRelationship("node1", "pointerToNode2", "node2");
+        protoSchema.registerRelationship("node2", "pointerToNode1", "node1");
+
+        // First run: node2 fails, it may have been written without being journalled
+        Neo4jClient failingClient = mock(Neo4jClient.class);
+        when(failingClient.createNode(any(), any())).thenAnswer( invocation -> {
+            String name = (String) invocation.<Map<String, Object>>getArgument(1).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY);
+            if (name.equals("node2")) {
+                throw new RuntimeException("unavailable");
+            }
+            return name + "ref";
+        });
+        Neo4JProtoSchemaExporter failingExporter = new Neo4JProtoSchemaExporter(failingClient);
+        failingExporter.configure(config);
+        assertThatThrownBy(() -> failingExporter.export(protoSchema)).hasMessageContaining("unavailable");
+        verify(failingClient, times(1)).cleanOrFail();
+
+        // Second run of the same schema: no clean, what wasn't journalled is merged instead of created again
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        when(neo4jClient.mergeNodes(any(), any(), anyList())).thenAnswer( invocation ->
+                invocation.<List<Map<String, Object>>>getArgument(2).stream()
+                        .map( attributes -> attributes.get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref" )
+                        .collect(Collectors.toList()));
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(config);
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        List<String> nodeKeys = Collections.singletonList(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY);
+        List<String> relationshipKeys = Collections.singletonList(Neo4JProtoSchemaExporter.RELATIONSHIP_FIELD_KEY);
+        verify(neo4jClient, times(0)).clean();
+        verify(neo4jClient, times(0)).createNode(any(), any());
+        verify(neo4jClient, times(0)).createNodes(any(), anyList());
+        verify(neo4jClient, atLeast(1)).mergeNodes(eq("expediagroup_package"), eq(nodeKeys), anyList());
+        verify(neo4jClient, times(0)).createRelationShip(any(), any(), any(), any());
+        verify(neo4jClient, times(2)).mergeRelationShips(eq(Neo4JProtoSchemaExporter.RELATIONSHIP_TYPE), eq(relationshipKeys), anyList());
+
+        // Completed exports leave no journal behind
+        assertThat(checkpointDir.toFile().list()).isEmpty();
+        Files.delete(checkpointDir);
+    }
+
+    @Test
+    public void testFailedCleanIsNotResumed() throws Exception {
+        Path checkpointDir = Files.createTempDirectory("checkpoint");
+        ExporterConfig config = ExporterConfig.of("checkpoint=true", "checkpoint_dir=" + checkpointDir);
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+
+        // First run: the graph could not be cleaned, nothing is written on top of it
+        Neo4jClient failingClient = mock(Neo4jClient.class);
+        Mockito.doThrow(new RuntimeException("unavailable")).when(failingClient).cleanOrFail();
+        Neo4JProtoSchemaExporter failingExporter = new Neo4JProtoSchemaExporter(failingClient);
+        failingExporter.configure(config);
+        assertThatThrownBy(() -> failingExporter.export(protoSchema)).hasMessageContaining("unavailable");
+        verify(failingClient, times(0)).createNode(any(), any());
+
+        // Second run of the same schema: the journal left behind is not resumed, the graph is cleaned
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        when(neo4jClient.createNode(any(), any())).thenReturn("node1ref");
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(config);
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        verify(neo4jClient, times(1)).cleanOrFail();
+        verify(neo4jClient, times(1)).createNode(eq("expediagroup_package"), any());
+        verify(neo4jClient, times(0)).mergeNodes(any(), any(), anyList());
+
+        assertThat(checkpointDir.toFile().list()).isEmpty();
+        Files.delete(checkpointDir);
+    }
+
+    @Test
+    public void testNewGenerationDoesNotResumeTheJournal() throws Exception {
+        Path checkpointDir = Files.createTempDirectory("checkpoint");
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        protoSchema.registerEntity("node2", "expediagroup.package");
+        protoSchema.registerRelationship("node1", "pointerToNode2", "node2");
+        protoSchema.registerRelationship("node2", "pointerToNode1", "node1");
+
+        // First run without generations: the nodes and the first relationship are journalled
+        Neo4jClient failingClient = mock(Neo4jClient.class);
+        when(failingClient.createNode(any(), any())).thenAnswer( invocation ->
+                invocation.<Map<String, Object>>getArgument(1).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref");
+        when(failingClient.createRelationShip(any(), any(), any(), any()))
+                .thenReturn("relref")
+                .thenThrow(new RuntimeException("unavailable"));
+        Neo4JProtoSchemaExporter failingExporter = new Neo4JProtoSchemaExporter(failingClient);
+        failingExporter.configure(ExporterConfig.of("checkpoint=true", "checkpoint_dir=" + checkpointDir, "parallelism=1"));
+        assertThatThrownBy(() -> failingExporter.export(protoSchema)).hasMessageContaining("unavailable");
+
+        // Second run in a new generation: everything is written again
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        when(neo4jClient.nextGeneration()).thenReturn(7L);
+        when(neo4jClient.switchGeneration(7L)).thenReturn(true);
+        when(neo4jClient.createNode(any(), any())).thenAnswer( invocation ->
+                invocation.<Map<String, Object>>getArgument(1).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref");
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(ExporterConfig.of("checkpoint=true", "checkpoint_dir=" + checkpointDir,
+                "parallelism=1", "generations=true"));
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        verify(neo4jClient, times(2)).createNode(eq("expediagroup_package"), any());
+        verify(neo4jClient, times(1)).createRelationShip(eq("node1ref"), eq("node2ref"), any(), any());
+        verify(neo4jClient, times(1)).createRelationShip(eq("node2ref"), eq("node1ref"), any(), any());
+        verify(neo4jClient, times(0)).mergeNodes(any(), any(), anyList());
+
+        assertThat(checkpointDir.toFile().list()).isEmpty();
+        Files.delete(checkpointDir);
+    }
+
+    @Test
+    public void testGenerationsSwitchThenReclaim() {
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(ExporterConfig.parse("generations=true,reclaim_batch_size=2"));
+        when(neo4jClient.nextGeneration()).thenReturn(7L);
+        when(neo4jClient.switchGeneration(7L)).thenReturn(true);
+        when(neo4jClient.createNode(any(), any())).thenReturn("node1ref");
+        when(neo4jClient.deleteOlderGenerations(any(), Mockito.anyLong(), Mockito.anyInt())).thenReturn(2, 1, 0);
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        Map<String, Object> node1ExpectedAttributes = new HashMap<>();
+        node1ExpectedAttributes.put(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY, "node1");
+        node1ExpectedAttributes.put(Neo4JProtoSchemaExporter.DOMAIN_ATTRIBUTE_KEY, "expediagroup.package");
+        node1ExpectedAttributes.put(Neo4JProtoSchemaExporter.GENERATION_ATTRIBUTE_KEY, 7L);
+
+        // The current graph is left alone until the new generation is complete
+        InOrder inOrder = Mockito.inOrder(neo4jClient);
+        inOrder.verify(neo4jClient).createNode(eq("expediagroup_package"), eq(node1ExpectedAttributes));
+        inOrder.verify(neo4jClient).switchGeneration(7L);
+        inOrder.verify(neo4jClient, times(3)).deleteOlderGenerations(Neo4JProtoSchemaExporter.GENERATION_ATTRIBUTE_KEY, 7L, 2);
+        verify(neo4jClient, times(0)).clean();
+    }
+
+    @Test
+    public void testReclaimKeepsLaterStagingGeneration() {
+        // Generation of every node of the graph, generation 8 is still being written by another export
+        List<Long> graph = new ArrayList<>(Arrays.asList(6L, 6L, 8L));
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        neo4JProtoSchemaExporter.configure(ExporterConfig.parse("generations=true"));
+        when(neo4jClient.nextGeneration()).thenReturn(7L);
+        when(neo4jClient.switchGeneration(7L)).thenReturn(true);
+        when(neo4jClient.createNode(any(), any())).thenAnswer( invocation -> {
+            graph.add((Long) invocation.<Map<String, Object>>getArgument(1).get(Neo4JProtoSchemaExporter.GENERATION_ATTRIBUTE_KEY));
+            return "ref";
+        });
+        when(neo4jClient.deleteOlderGenerations(any(), Mockito.anyLong(), Mockito.anyInt())).thenAnswer( invocation -> {
+            long kept = invocation.getArgument(1);
+            int before = graph.size();
+            graph.removeIf( generation -> generation < kept );
+            return before - graph.size();
+        });
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        assertThat(graph).containsExactlyInAnyOrder(7L, 8L);
+    }
+
+    @Test
+    public void testInterleavedExportsOnlyAdvanceTheCurrentGeneration() {
+        // Shared by both exports: the pointer node and the generation of every node of the graph
+        AtomicLong next = new AtomicLong(6L);
+        AtomicLong current = new AtomicLong(6L);
+        List<Long> graph = new ArrayList<>(Arrays.asList(6L, 6L));
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        when(neo4jClient.nextGeneration()).thenAnswer( invocation -> next.incrementAndGet() );
+        when(neo4jClient.switchGeneration(Mockito.anyLong())).thenAnswer( invocation -> {
+            long generation = invocation.getArgument(0);
+            return current.getAndAccumulate(generation, Math::max) < generation;
+        });
+        when(neo4jClient.createNode(any(), any())).thenAnswer( invocation -> {
+            graph.add((Long) invocation.<Map<String, Object>>getArgument(1).get(Neo4JProtoSchemaExporter.GENERATION_ATTRIBUTE_KEY));
+            return "ref";
+        });
+        when(neo4jClient.deleteOlderGenerations(any(), Mockito.anyLong(), Mockito.anyInt())).thenAnswer( invocation -> {
+            long kept = invocation.getArgument(1);
+            int before = graph.size();
+            graph.removeIf( generation -> generation < kept );
+            return before - graph.size();
+        });
+        Neo4JProtoSchemaExporter first = new Neo4JProtoSchemaExporter(neo4jClient);
+        first.configure(ExporterConfig.parse("generations=true"));
+        Neo4JProtoSchemaExporter second = new Neo4JProtoSchemaExporter(neo4jClient);
+        second.configure(ExporterConfig.parse("generations=true"));
+
+        // The first export allocates generation 7, the second one generation 8 and completes first
+        ProtoSchemaSink firstSink = first.openSink();
+        ProtoSchema firstSchema = new ProtoSchema();
+        firstSchema.setSink(firstSink);
+        ProtoSchemaSink secondSink = second.openSink();
+        ProtoSchema secondSchema = new ProtoSchema();
+        secondSchema.setSink(secondSink);
+        secondSchema.registerEntity("node1", "expediagroup.package");
+        secondSchema.completeEntity("node1");
+        secondSink.onComplete();
+        firstSchema.registerEntity("node1", "expediagroup.package");
+        firstSchema.completeEntity("node1");
+        firstSink.onComplete();
+
+        assertThat(current.get()).isEqualTo(8L);
+        verify(neo4jClient, times(0)).deleteOlderGenerations(any(), eq(7L), Mockito.anyInt());
+        assertThat(graph).containsExactlyInAnyOrder(7L, 8L);
+    }
+
+    @Test
+    public void testAggregatedRelationships() {
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        when(neo4jClient.createNode(eq("expediagroup_package"), any())).thenAnswer( invocation ->
+                invocation.<Map<String, String>>getArgument(1).get(Neo4JProtoSchemaExporter.FULL_NAME_ATTRIBUTE_KEY) + "ref");
+
+        ProtoSchema protoSchema = new ProtoSchema();
+        protoSchema.registerEntity("node1", "expediagroup.package");
+        protoSchema.registerEntity("node2", "expediagroup.package");
+        protoSchema.registerRelationship("node1", "total", "node2");
+        protoSchema.registerRelationship("node1", "tax", "node2");
+        protoSchema.registerRelationship("node2", "parent", "node1");
+        protoSchema.aggregateRelationships();
+
+        assertThat(protoSchema.getRelationships()).hasSize(2);
+        assertThat(protoSchema.toString()).contains("\"fieldNames\":[\"tax\",\"total\"]").contains("\"multiplicity\":2");
+        neo4JProtoSchemaExporter.export(protoSchema);
+
+        Map<String, Object> aggregatedExpectedFields = new HashMap<>();
+        aggregatedExpectedFields.put(Neo4JProtoSchemaExporter.RELATIONSHIP_FIELD_KEY, "tax,total");
+        aggregatedExpectedFields.put(Neo4JProtoSchemaExporter.RELATIONSHIP_FIELDS_KEY, Arrays.asList("tax", "total"));
+        aggregatedExpectedFields.put(Neo4JProtoSchemaExporter.RELATIONSHIP_MULTIPLICITY_KEY, 2);
+        Map<String, String> singleExpectedField = new HashMap<>();
+        singleExpectedField.put(Neo4JProtoSchemaExporter.RELATIONSHIP_FIELD_KEY, "parent");
+
+        verify(neo4jClient, times(2)).createRelationShip(any(), any(), any(), any());
+        verify(neo4jClient, times(1)).createRelationShip(eq("node1ref"), eq("node2ref"), eq("uses"), eq(aggregatedExpectedFields));
+        verify(neo4jClient, times(1)).createRelationShip(eq("node2ref"), eq("node1ref"), eq("uses"), eq(singleExpectedField));
+    }
+
+    @Test
+    public void testFailedStreamingExportReleasesWriters() throws Exception {
+        Neo4jClient neo4jClient = mock(Neo4jClient.class);
+        when(neo4jClient.createNode(any(), any())).thenReturn("ref").thenThrow(new RuntimeException("unavailable"));
+        Neo4JProtoSchemaExporter neo4JProtoSchemaExporter = new Neo4JProtoSchemaExporter(neo4jClient);
+        ProtoVisualExporterPlugin plugin = new ProtoVisualExporterPlugin(neo4JProtoSchemaExporter, Collections.emptyList(),
+                ExporterConfig.parse("streaming=true,parallelism=2,queue_size=1"));
+
+        byte[] bytes = Files.readAllBytes(Paths.get(getClass().getResource("/descriptor_dump").toURI()));
+        PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.parseFrom(bytes);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThatThrownBy(() -> plugin.generateFiles(request)).hasMessageContaining("unavailable"));
+
+        // No writer thread is left to keep the JVM alive
+        long deadline = System.currentTimeMillis() + 10000;
+        while (writerThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(writerThreads()).isZero();
+    }
+
+    private static long writerThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter( thread -> thread.getName().startsWith(Neo4JProtoSchemaExporter.WRITER_THREAD_NAME) && thread.isAlive() )
+                .count();
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.neo4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class Neo4jClientTest {
+
+    @Test
+    public void testTemplatesAreSharedAcrossCalls() {
+        Neo4jClient neo4jClient = new Neo4jClient("http://localhost:7474", "", "");
+
+        String template = neo4jClient.nodeTemplate("expediagroup_package");
+        assertThat(template).isEqualTo("CREATE (n:`expediagroup_package`) SET n = {props} RETURN n");
+        assertThat(neo4jClient.nodeTemplate("expediagroup_package")).isSameAs(template);
+        assertThat(neo4jClient.nodeTemplate("other_package")).isNotEqualTo(template);
+
+        assertThat(neo4jClient.nodesTemplate("expediagroup_package"))
+                .isSameAs(neo4jClient.nodesTemplate("expediagroup_package"))
+                .contains("SET n = row");
+        assertThat(neo4jClient.relationshipsTemplate("uses"))
+                .isSameAs(neo4jClient.relationshipsTemplate("uses"))
+                .contains("[r:`uses`]");
+        assertThat(neo4jClient.mergeNodesTemplate("expediagroup_package", Arrays.asList("_full_name_", "_generation_")))
+                .isEqualTo("UNWIND {rows} AS row MERGE (n:`expediagroup_package` {`_full_name_`: row.`_full_name_`, "
+                        + "`_generation_`: row.`_generation_`}) SET n = row RETURN n");
+        assertThat(neo4jClient.mergeRelationshipsTemplate("uses", Collections.singletonList("field")))
+                .contains("MERGE (a)-[r:`uses` {`field`: row.data.`field`}]->(b)");
+        assertThat(neo4jClient.reclaimTemplate("_generation_"))
+                .isSameAs(neo4jClient.reclaimTemplate("_generation_"))
+                .contains("coalesce(n._generation_, -1) < {generation}");
+        assertThat(Neo4jClient.SWITCH_GENERATION)
+                .contains("SET p.current = CASE WHEN advanced THEN {generation} ELSE p.current END RETURN advanced");
+    }
+
+    @Test
+    public void testCloseReleasesTheConnectionPool() throws Exception {
+        Neo4jClient neo4jClient = new Neo4jClient("http://localhost:7474", "", "");
+        neo4jClient.close();
+
+        assertThatThrownBy(() -> neo4jClient.createNode("expediagroup_package", Collections.emptyMap()))
+                .hasStackTraceContaining("Connection pool shut down");
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2019 Expedia, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.expediagroup.grpc.plugin.sqlite;
+
+import com.expediagroup.grpc.plugin.ExporterConfig;
+import com.expediagroup.grpc.plugin.ProtoSchema;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SQLiteProtoSchemaExporterTest {
+
+    @Test
+    public void testExportAndImpactQueries() throws Exception {
+        ProtoSchema schema = new ProtoSchema();
+        schema.registerEntity("shop.Order", "shop");
+        schema.registerEntityAttribute("shop.Order", "id", "TYPE_STRING");
+        schema.registerEntityProperty("shop.Order", "_size_", "3");
+        schema.registerEntity("shop.Line", "shop");
+        schema.registerEntity("shop.Item", "shop");
+        schema.registerEntity("common.Money", "common");
+        schema.registerRelationship("shop.Order", "lines", "shop.Line");
+        schema.registerRelationship("shop.Line", "item", "shop.Item");
+        schema.registerRelationship("shop.Line", "price", "common.Money");
+        // A cycle must not make the recursive queries loop
+        schema.registerRelationship("shop.Item", "parent", "shop.Line");
+
+        Path directory = Files.createTempDirectory("sqlite");
+        Path database = directory.resolve("schema.db");
+        SQLiteProtoSchemaExporter exporter = new SQLiteProtoSchemaExporter(database);
+        exporter.configure(ExporterConfig.parse("batch_size=2"));
+        // Exporting twice recreates the store
+        exporter.export(schema);
+        exporter.export(schema);
+        assertThat(exporter.getLog()).contains("==========relationship rows (4)==========", SQLiteSchemaStore.TRANSITIVE_USED_BY);
+
+        try (SQLiteSchemaStore store = SQLiteSchemaStore.open(database)) {
+            assertThat(count(store, "entity")).isEqualTo(4);
+            assertThat(count(store, "attribute")).isEqualTo(1);
+            assertThat(count(store, "property")).isEqualTo(1);
+            assertThat(count(store, "relationship")).isEqualTo(4);
+
+            assertThat(store.getTransitiveUsedBy("common.Money")).containsExactly("shop.Item", "shop.Line", "shop.Order");
+            assertThat(store.getTransitiveUses("shop.Order")).containsExactly("common.Money", "shop.Item", "shop.Line");
+            assertThat(store.getTransitiveUses("common.Money")).isEmpty();
+        }
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach( file -> file.toFile().delete() );
+        }
+    }
+
+    private static int count(SQLiteSchemaStore store, String table) throws Exception {
+        try (Statement statement = store.getConnection().createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            result.next();
+            return result.getInt(1);
+        }
+    }
+}